@@ -15,3 +15,6 @@
 #-keepclassmembers class fqcn.of.javascript.interface.for.webview {
 #   public *;
 #}
+
+# Glide instantiates its modules by reflection from the manifest
+-keep public class * implements com.bumptech.glide.module.GlideModule
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+import com.example.android.sunshine.core.CityIndex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class TestCitySuggestions extends AndroidTestCase {
+
+    public void testIndexIsBuiltOnce() throws IOException {
+        File file = CitySuggestions.getIndexFile(mContext);
+        file.delete();
+
+        CityIndex index = CitySuggestions.load(mContext);
+        assertTrue("Error: The index should be built into the files dir", file.exists());
+        assertTrue(index.size() > 0);
+        assertEquals(Arrays.asList("Mountain View,US"), index.search("mountain v", 5));
+
+        long modified = file.lastModified();
+        assertEquals(index.size(), CitySuggestions.load(mContext).size());
+        assertEquals("Error: A second load should map the existing index",
+                modified, file.lastModified());
+    }
+
+    public void testCorruptIndexIsRebuilt() throws IOException {
+        File file = CitySuggestions.getIndexFile(mContext);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[64]);
+        out.close();
+        try {
+            CitySuggestions.load(mContext);
+            fail("Error: A corrupt index should fail to load");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse("Error: A corrupt index should be deleted", file.exists());
+        assertTrue(CitySuggestions.load(mContext).size() > 0);
+    }
+
+    public void testSuggest() {
+        CitySuggestions.prepare(mContext);
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return !CitySuggestions.suggest("lon", 5).isEmpty();
+            }
+        }.run();
+        assertEquals(Arrays.asList("London,CA", "London,GB"), CitySuggestions.suggest("lon", 5));
+        assertEquals("Error: Accents shouldn't have to be typed",
+                Arrays.asList("Z\u00fcrich,CH"), CitySuggestions.suggest("zur", 5));
+        assertTrue(CitySuggestions.suggest("94043", 5).isEmpty());
+    }
+}
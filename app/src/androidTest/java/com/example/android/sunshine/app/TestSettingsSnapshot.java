@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.utils.BenchmarkResults;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    Checks SettingsSnapshot keeps up with SharedPreferences, and compares what a bind pays for
+    its settings now against the per-call SharedPreferences reads the Utility helpers used to do.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+    private static final String LOG_TAG = "SettingsSnapshot";
+
+    // Reads per sample, and samples per helper
+    private static final int READS = 1000;
+    private static final int SAMPLES = 50;
+
+    private SharedPreferences mPrefs;
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedUnits = mPrefs.getString(mContext.getString(R.string.pref_units_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mSavedUnits != null) {
+            editor.putString(mContext.getString(R.string.pref_units_key), mSavedUnits);
+        } else {
+            editor.remove(mContext.getString(R.string.pref_units_key));
+        }
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    private void setUnits(int unitsId) {
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_units_key), mContext.getString(unitsId))
+                .commit();
+    }
+
+    public void testFollowsChanges() {
+        setUnits(R.string.pref_units_metric);
+        SettingsSnapshot.refresh(mContext);
+        assertTrue(Utility.isMetric(mContext));
+
+        // The listener runs on the main thread, so the change shows up shortly after the commit
+        setUnits(R.string.pref_units_imperial);
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return !Utility.isMetric(mContext);
+            }
+        }.run();
+
+        setUnits(R.string.pref_units_metric);
+        assertTrue("Error: refresh should pick up the change straight away",
+                SettingsSnapshot.refresh(mContext).metric);
+        assertTrue(Utility.isMetric(mContext));
+    }
+
+    public void testMatchesPreferences() {
+        SettingsSnapshot snapshot = SettingsSnapshot.refresh(mContext);
+        assertEquals(readPreferredLocation(mContext), snapshot.location);
+        assertEquals(readIsMetric(mContext), snapshot.metric);
+        assertEquals(readUsingLocalGraphics(mContext), snapshot.localGraphics);
+        assertEquals(readLocationStatus(mContext), snapshot.locationStatus);
+    }
+
+    /*
+        What a forecast row bind reads: the location, the units twice (high and low) and the
+        art pack.  The "preferences" samples repeat the helpers as they were before the snapshot.
+     */
+    public void testReadCost() {
+        long[] prefsMicros = new long[SAMPLES];
+        long[] snapshotMicros = new long[SAMPLES];
+        int sink = 0;
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < READS; i++) {
+                sink += readPreferredLocation(mContext).length();
+                sink += readIsMetric(mContext) ? 1 : 0;
+                sink += readIsMetric(mContext) ? 1 : 0;
+                sink += readUsingLocalGraphics(mContext) ? 1 : 0;
+            }
+            prefsMicros[sample] = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < READS; i++) {
+                sink += Utility.getPreferredLocation(mContext).length();
+                sink += Utility.isMetric(mContext) ? 1 : 0;
+                sink += Utility.isMetric(mContext) ? 1 : 0;
+                sink += Utility.usingLocalGraphics(mContext) ? 1 : 0;
+            }
+            snapshotMicros[sample] = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+        }
+        assertTrue(sink > 0);
+
+        long prefs = BenchmarkResults.record(mContext, LOG_TAG, "preferences x" + READS,
+                prefsMicros, throughput(prefsMicros));
+        long snapshot = BenchmarkResults.record(mContext, LOG_TAG, "snapshot x" + READS,
+                snapshotMicros, throughput(snapshotMicros));
+        assertTrue("Error: Reading the snapshot (" + snapshot + "us) should be faster than " +
+                "reading SharedPreferences (" + prefs + "us)", snapshot < prefs);
+    }
+
+    private static double throughput(long[] micros) {
+        long total = 0;
+        for (long sample : micros) {
+            total += sample;
+        }
+        return micros.length * READS * 4 / (Math.max(total, 1) / 1000000.0);
+    }
+
+    private static String readPreferredLocation(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+    }
+
+    private static boolean readIsMetric(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_units_key),
+                context.getString(R.string.pref_units_metric))
+                .equals(context.getString(R.string.pref_units_metric));
+    }
+
+    private static boolean readUsingLocalGraphics(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        return prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack).equals(sunshineArtPack);
+    }
+
+    private static int readLocationStatus(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getInt(context.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+}
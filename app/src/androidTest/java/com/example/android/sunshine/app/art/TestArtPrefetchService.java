@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.art;
+
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.sync.FakeOwmServer;
+
+import java.io.ByteArrayOutputStream;
+
+public class TestArtPrefetchService extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mSavedPack;
+    private String mSavedPrefetchedPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedPack = mPrefs.getString(mContext.getString(R.string.pref_art_pack_key), null);
+        mSavedPrefetchedPack = mPrefs.getString(ArtPrefetchService.PREF_PREFETCHED_PACK, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        restore(editor, mContext.getString(R.string.pref_art_pack_key), mSavedPack);
+        restore(editor, ArtPrefetchService.PREF_PREFETCHED_PACK, mSavedPrefetchedPack);
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    private static void restore(SharedPreferences.Editor editor, String key, String value) {
+        if (value != null) {
+            editor.putString(key, value);
+        } else {
+            editor.remove(key);
+        }
+    }
+
+    private void setPack(int packId) {
+        // Committed from the test thread; the snapshot's listener only runs later, on the
+        // main thread, like it can after SettingsActivity's listener
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_art_pack_key), mContext.getString(packId))
+                .commit();
+    }
+
+    public void testSeesNewPack() {
+        mPrefs.edit().remove(ArtPrefetchService.PREF_PREFETCHED_PACK).commit();
+        setPack(R.string.pref_art_pack_sunshine);
+        SettingsSnapshot.refresh(mContext);
+
+        setPack(R.string.pref_art_pack_cute_dogs);
+        assertEquals("Error: Switching to a remote pack should prefetch it, " +
+                "whatever the snapshot still holds",
+                mContext.getString(R.string.pref_art_pack_cute_dogs),
+                ArtPrefetchService.getPackToPrefetch(mContext));
+
+        setPack(R.string.pref_art_pack_sunshine);
+        assertNull("Error: Switching back to the bundled art shouldn't prefetch",
+                ArtPrefetchService.getPackToPrefetch(mContext));
+    }
+
+    public void testPrefetchedPackIsSkipped() {
+        setPack(R.string.pref_art_pack_cute_dogs);
+        mPrefs.edit()
+                .putString(ArtPrefetchService.PREF_PREFETCHED_PACK,
+                        mContext.getString(R.string.pref_art_pack_cute_dogs))
+                .commit();
+        assertNull(ArtPrefetchService.getPackToPrefetch(mContext));
+    }
+
+    public void testPrefetchedPackLoadsOffline() throws Exception {
+        FakeOwmServer server = new FakeOwmServer(null);
+        try {
+            server.setArt(createPng());
+            // A pack url no earlier run has cached
+            String pack = server.getArtPackUrl() + "?run=" + System.currentTimeMillis();
+            mPrefs.edit()
+                    .putString(mContext.getString(R.string.pref_art_pack_key), pack)
+                    .remove(ArtPrefetchService.PREF_PREFETCHED_PACK)
+                    .commit();
+            SettingsSnapshot.refresh(mContext);
+
+            assertTrue(ArtPrefetchService.prefetch(mContext, pack));
+            int downloaded = mPrefs.getInt(ArtPrefetchService.PREF_DOWNLOADED, 0);
+            assertEquals("Error: A new pack should be downloaded in full",
+                    0, mPrefs.getInt(ArtPrefetchService.PREF_CACHE_HITS, -1));
+            assertEquals(downloaded, server.getRequestCount());
+
+            assertTrue(ArtPrefetchService.prefetch(mContext, pack));
+            assertEquals("Error: A prefetched pack should come from the cache",
+                    downloaded, mPrefs.getInt(ArtPrefetchService.PREF_CACHE_HITS, 0));
+            assertEquals(0, mPrefs.getInt(ArtPrefetchService.PREF_DOWNLOADED, -1));
+            assertEquals(downloaded, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+
+        // With the server gone, only the disk cache can answer
+        WeatherArtCache cache = WeatherArtCache.getInstance(mContext);
+        for (int weatherId : new int[] { 200, 300, 500, 600, 701, 800, 801, 802 }) {
+            String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+            assertNotNull("Error: Prefetched art for " + weatherId + " didn't load offline",
+                    cache.loadUrl(artUrl, 64, 64));
+        }
+    }
+
+    private static byte[] createPng() {
+        Bitmap bitmap = Bitmap.createBitmap(32, 32, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.BLUE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.art;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.Utility;
+
+public class TestWeatherArtCache extends AndroidTestCase {
+
+    // OWM's "calm", one of the 9xx ids with no condition bucket
+    private static final int UNKNOWN_WEATHER_ID = 951;
+    private static final int KNOWN_WEATHER_ID = 800;
+
+    private SharedPreferences mPrefs;
+    private String mSavedPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedPack = mPrefs.getString(mContext.getString(R.string.pref_art_pack_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mSavedPack != null) {
+            editor.putString(mContext.getString(R.string.pref_art_pack_key), mSavedPack);
+        } else {
+            editor.remove(mContext.getString(R.string.pref_art_pack_key));
+        }
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    private void setPack(int packId) {
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_art_pack_key), mContext.getString(packId))
+                .commit();
+        SettingsSnapshot.refresh(mContext);
+    }
+
+    public void testUnknownConditionWithBundledArt() {
+        setPack(R.string.pref_art_pack_sunshine);
+        WeatherArtCache cache = WeatherArtCache.getInstance(mContext);
+        assertNull(cache.getArt(UNKNOWN_WEATHER_ID, 64, 64));
+        assertNull(cache.getIcon(UNKNOWN_WEATHER_ID, 64, 64));
+        assertNull(cache.getIconPng(UNKNOWN_WEATHER_ID));
+        assertNull(Utility.toAsset(mContext, UNKNOWN_WEATHER_ID));
+
+        assertNotNull(cache.getArt(KNOWN_WEATHER_ID, 64, 64));
+        assertNotNull(cache.getIconPng(KNOWN_WEATHER_ID));
+    }
+
+    public void testUnknownConditionWithRemotePack() {
+        setPack(R.string.pref_art_pack_cute_dogs);
+        assertNull("Error: An unknown condition has no art url",
+                Utility.getArtUrlForWeatherCondition(mContext, UNKNOWN_WEATHER_ID));
+        assertNull(WeatherArtCache.getInstance(mContext).getArt(UNKNOWN_WEATHER_ID, 64, 64));
+    }
+}
@@ -55,6 +55,8 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.CurrentConditionsEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.SyncStatsEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -105,6 +107,23 @@ public class TestDb extends AndroidTestCase {
         db.close();
     }
 
+    /*
+        The provider is read by the UI and widgets while the sync adapter writes, so the database
+        has to come up in write-ahead logging mode.
+     */
+    public void testWriteAheadLogging() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        Cursor c = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue("Error: Unable to query the journal mode", c.moveToFirst());
+        assertEquals("Error: The database is not in WAL mode", "wal", c.getString(0).toLowerCase());
+        c.close();
+
+        assertTrue("Error: Write-ahead logging not enabled", db.isWriteAheadLoggingEnabled());
+        dbHelper.close();
+    }
+
     /*
         Students:  Here is where you will build code to test that we can insert and query the
         location database.  We've done a lot of work for you.  You'll want to look in TestUtilities
@@ -177,6 +196,40 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    /*
+        A new process checks the current conditions table's dates before rebuilding it, so it
+        only rewrites the table on the first read after the day has rolled over.
+     */
+    public void testCurrentConditionsStaleness() {
+        long locationRowId = insertLocation();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        long millisecondsInADay = 1000*60*60*24;
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int i = 0; i < 2; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, today + i * millisecondsInADay);
+            assertTrue(db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        }
+        assertFalse("Error: An empty table has nothing out of date",
+                WeatherDbHelper.isCurrentConditionsStale(db, today));
+
+        WeatherDbHelper.rebuildCurrentConditions(db, today);
+        assertFalse("Error: A table built today should be fresh today",
+                WeatherDbHelper.isCurrentConditionsStale(db, today));
+        long tomorrow = today + millisecondsInADay;
+        assertTrue("Error: Today's row should be out of date tomorrow",
+                WeatherDbHelper.isCurrentConditionsStale(db, tomorrow));
+
+        WeatherDbHelper.rebuildCurrentConditions(db, tomorrow);
+        assertFalse(WeatherDbHelper.isCurrentConditionsStale(db, tomorrow));
+        WeatherDbHelper.rebuildCurrentConditions(db, tomorrow + millisecondsInADay);
+        assertFalse("Error: A location with no forecast left has no row to go stale",
+                WeatherDbHelper.isCurrentConditionsStale(db, tomorrow + millisecondsInADay));
+        dbHelper.close();
+    }
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/*
+    Writes forecast snapshots and reads them back, and checks that anything the reader can't
+    trust comes back null so the caller goes to the provider: corrupt files, and snapshots
+    that writes through the provider or a new database have made stale.
+ */
+public class TestForecastSnapshot extends AndroidTestCase {
+    private static final String LOCATION = "99705";
+    private static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ForecastSnapshot.delete(mContext, LOCATION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastSnapshot.delete(mContext, LOCATION);
+        super.tearDown();
+    }
+
+    private ForecastBatch createForecast(int days) {
+        ForecastBatch forecast = new ForecastBatch(days);
+        for (int i = 0; i < days; i++) {
+            forecast.add(TEST_DATE + i * 86400000L, 800 + i, "Clear " + i, -7 + i, 65 + i,
+                    1.2, 1.3, 5.5, 1.1);
+        }
+        return forecast;
+    }
+
+    public void testRoundTrip() {
+        ForecastSnapshot.write(mContext, LOCATION, createForecast(14));
+
+        ForecastSnapshot snapshot = ForecastSnapshot.read(mContext, LOCATION);
+        assertNotNull("Error: The snapshot just written couldn't be read", snapshot);
+        assertEquals(14, snapshot.size());
+        for (int i = 0; i < 14; i++) {
+            assertEquals(TEST_DATE + i * 86400000L, snapshot.getDate(i));
+            assertEquals(800 + i, snapshot.getWeatherId(i));
+            assertEquals("Clear " + i, snapshot.getShortDesc(i));
+            assertEquals(-7.0 + i, snapshot.getMinTemp(i));
+            assertEquals(65.0 + i, snapshot.getMaxTemp(i));
+            assertEquals(1.2, snapshot.getHumidity(i));
+            assertEquals(1.3, snapshot.getPressure(i));
+            assertEquals(5.5, snapshot.getWindSpeed(i));
+            assertEquals(1.1, snapshot.getDegrees(i));
+        }
+        assertEquals(3, snapshot.indexOfDate(TEST_DATE + 3 * 86400000L));
+        assertEquals(-1, snapshot.indexOfDate(TEST_DATE + 14 * 86400000L));
+    }
+
+    public void testLongDescriptionIsTruncated() {
+        ForecastBatch forecast = new ForecastBatch(1);
+        StringBuilder desc = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            desc.append('é');
+        }
+        forecast.add(TEST_DATE, 800, desc.toString(), 0, 0, 0, 0, 0, 0);
+        ForecastSnapshot.write(mContext, LOCATION, forecast);
+
+        String read = ForecastSnapshot.read(mContext, LOCATION).getShortDesc(0);
+        assertTrue("Error: The description should be a prefix of the original",
+                desc.toString().startsWith(read));
+        assertEquals(15, read.length());
+    }
+
+    public void testOtherLocationIsIgnored() {
+        ForecastSnapshot.write(mContext, LOCATION, createForecast(2));
+        // Different setting, so a different file; nothing written there
+        assertNull(ForecastSnapshot.read(mContext, "94043"));
+    }
+
+    public void testCorruptSnapshotIsIgnored() throws Exception {
+        ForecastSnapshot.write(mContext, LOCATION, createForecast(14));
+        File file = ForecastSnapshot.getFile(mContext, LOCATION);
+
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.seek(file.length() - 1);
+            int last = out.read();
+            out.seek(file.length() - 1);
+            out.write(last ^ 0xff);
+        } finally {
+            out.close();
+        }
+        assertNull("Error: A snapshot that fails its checksum should be ignored",
+                ForecastSnapshot.read(mContext, LOCATION));
+    }
+
+    public void testProviderWriteDropsSnapshots() {
+        ForecastSnapshot.write(mContext, LOCATION, createForecast(2));
+        ForecastSnapshot.write(mContext, "94043", createForecast(2));
+        try {
+            mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI,
+                    TestUtilities.createNorthPoleLocationValues());
+            assertNull("Error: A write outside the sync should drop the snapshots",
+                    ForecastSnapshot.read(mContext, LOCATION));
+            assertNull(ForecastSnapshot.read(mContext, "94043"));
+        } finally {
+            mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI,
+                    null, null);
+            ForecastSnapshot.delete(mContext, "94043");
+        }
+    }
+
+    public void testNewDatabaseDropsSnapshots() {
+        ForecastSnapshot.write(mContext, LOCATION, createForecast(2));
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        new WeatherDbHelper(mContext).getWritableDatabase().close();
+        assertNull("Error: Snapshots shouldn't outlive the database they were taken from",
+                ForecastSnapshot.read(mContext, LOCATION));
+    }
+}
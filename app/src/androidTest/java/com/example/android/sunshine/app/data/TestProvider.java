@@ -24,11 +24,18 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.BenchmarkResults;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -160,6 +167,19 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/current/94074
+        type = mContext.getContentResolver().getType(
+                WeatherContract.CurrentConditionsEntry.buildCurrentConditionsUri(testLocation));
+        // vnd.android.cursor.item/com.example.android.sunshine.app/current
+        assertEquals("Error: the CurrentConditionsEntry CONTENT_URI with location should return CurrentConditionsEntry.CONTENT_ITEM_TYPE",
+                WeatherContract.CurrentConditionsEntry.CONTENT_ITEM_TYPE, type);
+
+        // content://com.example.android.sunshine.app/sync_stats
+        type = mContext.getContentResolver().getType(WeatherContract.SyncStatsEntry.CONTENT_URI);
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/sync_stats
+        assertEquals("Error: the SyncStatsEntry CONTENT_URI should return SyncStatsEntry.CONTENT_TYPE",
+                WeatherContract.SyncStatsEntry.CONTENT_TYPE, type);
     }
 
 
@@ -512,4 +532,504 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    static private final int LARGE_BULK_INSERT_RECORDS = 5000;
+
+    static private final int READS_DURING_WRITE = 50;
+    // Far below the busy timeout a reader locked out by the writer would sit through
+    static private final long READ_DURING_WRITE_MAX_P90_MICROS = 100 * 1000;
+    // How long the writer holds its transaction open for the reads, at most
+    static private final long WRITER_HOLD_SECONDS = 30;
+
+    /*
+        Measures how long a reader waits while a large write transaction is open.  The writer
+        uses its own connection, like a sync in another process, and beginTransaction(), which
+        is BEGIN EXCLUSIVE: without write-ahead logging that locks readers out until the commit.
+        With it, the reads are answered from the last committed snapshot straight away.
+
+        The reads only start once the writer's transaction is open and holding rows, and the
+        writer only commits once they're done.  They go through the plain weather uri, which
+        QueryCache doesn't serve, so each one reaches SQLite.
+     */
+    public void testReadLatencyDuringBulkInsert() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        final long locationRowId = ContentUris.parseId(locationUri);
+
+        final ContentValues[] bulkValues = new ContentValues[LARGE_BULK_INSERT_RECORDS];
+        long millisecondsInADay = 1000*60*60*24;
+        for (int i = 0; i < LARGE_BULK_INSERT_RECORDS; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * millisecondsInADay);
+            bulkValues[i] = weatherValues;
+        }
+
+        final CountDownLatch transactionOpen = new CountDownLatch(1);
+        final CountDownLatch readsDone = new CountDownLatch(1);
+        final AtomicReference<Throwable> writerError = new AtomicReference<>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+                try {
+                    SQLiteDatabase db = dbHelper.getWritableDatabase();
+                    db.beginTransaction();
+                    try {
+                        for (ContentValues value : bulkValues) {
+                            db.insertOrThrow(WeatherEntry.TABLE_NAME, null, value);
+                        }
+                        transactionOpen.countDown();
+                        readsDone.await(WRITER_HOLD_SECONDS, TimeUnit.SECONDS);
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                } catch (Throwable t) {
+                    writerError.set(t);
+                } finally {
+                    transactionOpen.countDown();
+                    dbHelper.close();
+                }
+            }
+        });
+        writer.start();
+
+        assertTrue("Error: The writer never opened its transaction",
+                transactionOpen.await(WRITER_HOLD_SECONDS, TimeUnit.SECONDS));
+        assertNull("Error: The writer failed", writerError.get());
+
+        long[] micros = new long[READS_DURING_WRITE];
+        try {
+            for (int i = 0; i < READS_DURING_WRITE; i++) {
+                long start = System.nanoTime();
+                Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                        new String[]{WeatherEntry._ID}, null, null, null);
+                assertNotNull(cursor);
+                int count = cursor.getCount();
+                cursor.close();
+                micros[i] = (System.nanoTime() - start) / 1000;
+                assertEquals("Error: A read saw rows the writer hasn't committed", 0, count);
+            }
+        } finally {
+            readsDone.countDown();
+        }
+        writer.join();
+        assertNull("Error: The writer failed", writerError.get());
+
+        long p90 = BenchmarkResults.record(mContext, LOG_TAG,
+                "read during " + LARGE_BULK_INSERT_RECORDS + " row write", micros,
+                READS_DURING_WRITE * 1000000.0 / Math.max(sum(micros), 1));
+        assertTrue("Error: Reads waited on the writer, p90 " + p90 + "us",
+                p90 < READ_DURING_WRITE_MAX_P90_MICROS);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(LARGE_BULK_INSERT_RECORDS, cursor.getCount());
+        cursor.close();
+    }
+
+    private static long sum(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    private Bundle getQueryCacheStats() {
+        return mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_QUERY_CACHE_STATS, null, null);
+    }
+
+    /*
+        The widgets, Muzei and the notification all ask for today's row right after a sync, each
+        with a different projection.  Only the first of those should reach SQLite, and any write
+        should make the next query go back to the database.
+     */
+    public void testQueryCache() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+
+        Bundle before = getQueryCacheStats();
+        int hits = before.getInt(WeatherContract.KEY_QUERY_CACHE_HITS);
+        int misses = before.getInt(WeatherContract.KEY_QUERY_CACHE_MISSES);
+
+        Cursor cursor = mContext.getContentResolver().query(weatherUri,
+                new String[]{WeatherEntry.COLUMN_WEATHER_ID, WeatherEntry.COLUMN_MAX_TEMP},
+                null, null, sortOrder);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(weatherUri,
+                new String[]{WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                        WeatherEntry.COLUMN_SHORT_DESC, LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, sortOrder);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(WeatherEntry._ID, cursor.getColumnName(0));
+        assertEquals("Asteroids", cursor.getString(1));
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(2));
+        cursor.close();
+
+        Bundle after = getQueryCacheStats();
+        assertEquals("Error: The first query should miss the cache",
+                misses + 1, after.getInt(WeatherContract.KEY_QUERY_CACHE_MISSES));
+        assertEquals("Error: The second query should be served from the cache",
+                hits + 1, after.getInt(WeatherContract.KEY_QUERY_CACHE_HITS));
+
+        // A write has to invalidate what we just cached
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues, null, null);
+
+        cursor = mContext.getContentResolver().query(weatherUri,
+                new String[]{WeatherEntry.COLUMN_SHORT_DESC}, null, null, sortOrder);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Meteors", cursor.getString(0));
+        cursor.close();
+
+        assertEquals("Error: A query after a write should miss the cache",
+                misses + 2, getQueryCacheStats().getInt(WeatherContract.KEY_QUERY_CACHE_MISSES));
+    }
+
+    /*
+        The current conditions table should hold today's row for each location as soon as the
+        bulkInsert that wrote it returns, and follow later bulkInserts.
+     */
+    public void testCurrentConditions() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        long millisecondsInADay = 1000*60*60*24;
+        long today = System.currentTimeMillis();
+        ContentValues[] forecast = new ContentValues[3];
+        for (int i = 0; i < forecast.length; i++) {
+            forecast[i] = TestUtilities.createWeatherValues(locationRowId);
+            forecast[i].put(WeatherEntry.COLUMN_DATE, today + i * millisecondsInADay);
+            forecast[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+
+        Uri currentUri = WeatherContract.CurrentConditionsEntry.buildCurrentConditionsUri(
+                TestUtilities.TEST_LOCATION);
+        Cursor cursor = mContext.getContentResolver().query(currentUri, null, null, null, null);
+        assertEquals("Error: Expected exactly one current conditions row", 1, cursor.getCount());
+        TestUtilities.validateCursor("testCurrentConditions. Error validating today's row.",
+                cursor, forecast[0]);
+
+        // A new forecast for today has to replace the denormalized copy
+        forecast[0].put(WeatherEntry.COLUMN_MAX_TEMP, 90);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{forecast[0]});
+        cursor = mContext.getContentResolver().query(currentUri, null, null, null, null);
+        TestUtilities.validateCursor("testCurrentConditions. Error validating updated row.",
+                cursor, forecast[0]);
+
+        // Deleting the weather clears it
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        cursor = mContext.getContentResolver().query(currentUri, null, null, null, null);
+        assertEquals("Error: Current conditions not cleared with the weather", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    static private final int INGEST_FORECAST_DAYS = 14;
+    static private final int INGEST_BENCHMARK_SYNCS = 50;
+
+    private static ContentValues[] createForecastValues(long locationRowId, long firstDay,
+                                                        int days) {
+        long millisecondsInADay = 1000*60*60*24;
+        ContentValues[] forecast = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, firstDay + i * millisecondsInADay);
+            forecast[i] = weatherValues;
+        }
+        return forecast;
+    }
+
+    // The same rows as createForecastValues, added to the batch straight from primitives the
+    // way the sync fills it
+    private static ForecastBatch createForecastBatch(long firstDay, int days) {
+        long millisecondsInADay = 1000*60*60*24;
+        ForecastBatch batch = new ForecastBatch(days);
+        for (int i = 0; i < days; i++) {
+            batch.add(firstDay + i * millisecondsInADay, 321, "Asteroids", 65, 75, 1.2, 1.3, 5.5,
+                    1.1);
+        }
+        return batch;
+    }
+
+    private Bundle ingestForecast(ForecastBatch forecast, long retentionCutoff) {
+        return ingestForecast(forecast, retentionCutoff,
+                TestUtilities.createNorthPoleLocationValues().getAsString(
+                        LocationEntry.COLUMN_CITY_NAME));
+    }
+
+    private Bundle ingestForecast(ForecastBatch forecast, long retentionCutoff, String cityName) {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        Bundle extras = new Bundle();
+        extras.putString(WeatherContract.KEY_INGEST_CITY_NAME, cityName);
+        extras.putDouble(WeatherContract.KEY_INGEST_COORD_LAT,
+                location.getAsDouble(LocationEntry.COLUMN_COORD_LAT));
+        extras.putDouble(WeatherContract.KEY_INGEST_COORD_LONG,
+                location.getAsDouble(LocationEntry.COLUMN_COORD_LONG));
+        extras.putParcelable(WeatherContract.KEY_INGEST_BATCH, forecast);
+        extras.putLong(WeatherContract.KEY_INGEST_RETENTION_CUTOFF, retentionCutoff);
+        return mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_INGEST_FORECAST, TestUtilities.TEST_LOCATION, extras);
+    }
+
+    /*
+        The sync ingest has to add the location the first time, reuse it afterwards, store the
+        forecast and drop the days on or before the cutoff, and tell observers about it.
+     */
+    public void testIngestForecast() {
+        long millisecondsInADay = 1000*60*60*24;
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, weatherObserver);
+
+        Bundle first = ingestForecast(createForecastBatch(today - millisecondsInADay, INGEST_FORECAST_DAYS),
+                today - 2 * millisecondsInADay);
+        assertEquals(INGEST_FORECAST_DAYS, first.getInt(WeatherContract.KEY_INGEST_INSERTED));
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        Bundle second = ingestForecast(createForecastBatch(today, INGEST_FORECAST_DAYS),
+                today - millisecondsInADay);
+        assertEquals("Error: The ingest added the same location twice",
+                first.getLong(WeatherContract.KEY_INGEST_LOCATION_ID),
+                second.getLong(WeatherContract.KEY_INGEST_LOCATION_ID));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        // Yesterday's row is past the cutoff, the rest were replaced in place
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(INGEST_FORECAST_DAYS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(today, cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.CurrentConditionsEntry.buildCurrentConditionsUri(
+                        TestUtilities.TEST_LOCATION), null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        After the first ingest the location should come from the provider's registry, the
+        stored city only be rewritten when it changes, and a deleted location be looked up again.
+     */
+    public void testLocationRegistry() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        String cityName = TestUtilities.createNorthPoleLocationValues()
+                .getAsString(LocationEntry.COLUMN_CITY_NAME);
+
+        Bundle first = ingestForecast(createForecastBatch(today, INGEST_FORECAST_DAYS), 0);
+        Bundle before = getQueryCacheStats();
+        Bundle second = ingestForecast(createForecastBatch(today, INGEST_FORECAST_DAYS), 0);
+        Bundle after = getQueryCacheStats();
+        assertEquals(first.getLong(WeatherContract.KEY_INGEST_LOCATION_ID),
+                second.getLong(WeatherContract.KEY_INGEST_LOCATION_ID));
+        assertEquals("Error: A known location shouldn't be looked up in the database",
+                before.getInt(WeatherContract.KEY_LOCATION_REGISTRY_MISSES),
+                after.getInt(WeatherContract.KEY_LOCATION_REGISTRY_MISSES));
+        assertEquals("Error: An unchanged location shouldn't be rewritten",
+                before.getInt(WeatherContract.KEY_LOCATION_REGISTRY_UPDATES),
+                after.getInt(WeatherContract.KEY_LOCATION_REGISTRY_UPDATES));
+
+        // The forecast query resolves the location through the same registry
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals(INGEST_FORECAST_DAYS, cursor.getCount());
+        cursor.close();
+
+        ingestForecast(createForecastBatch(today, INGEST_FORECAST_DAYS), 0, cityName + " Pole");
+        assertEquals("Error: A renamed city should be written once",
+                after.getInt(WeatherContract.KEY_LOCATION_REGISTRY_UPDATES) + 1,
+                getQueryCacheStats().getInt(WeatherContract.KEY_LOCATION_REGISTRY_UPDATES));
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_CITY_NAME}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(cityName + " Pole", cursor.getString(0));
+        cursor.close();
+
+        deleteAllRecordsFromProvider();
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals("Error: A deleted location shouldn't have a forecast", 0, cursor.getCount());
+        cursor.close();
+        Bundle third = ingestForecast(createForecastBatch(today, INGEST_FORECAST_DAYS), 0);
+        assertTrue("Error: A deleted location should be added again",
+                third.getLong(WeatherContract.KEY_INGEST_LOCATION_ID) > 0);
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals(INGEST_FORECAST_DAYS, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Compares the single-transaction ingest with the sequence the sync adapter used to run:
+        a location query (and insert the first time), a weather bulkInsert and a retention
+        delete, each with its own transaction and notifications.
+     */
+    public void testIngestForecastPerformance() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long millisecondsInADay = 1000*60*60*24;
+        long cutoff = today - millisecondsInADay;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < INGEST_BENCHMARK_SYNCS; i++) {
+            long locationId;
+            Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                    new String[]{LocationEntry._ID},
+                    LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{TestUtilities.TEST_LOCATION},
+                    null);
+            if (cursor.moveToFirst()) {
+                locationId = cursor.getLong(0);
+            } else {
+                locationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                        LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+            }
+            cursor.close();
+
+            ContentValues[] forecast = createForecastValues(locationId, today,
+                    INGEST_FORECAST_DAYS);
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                    WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(cutoff)});
+        }
+        long sequenceNanos = System.nanoTime() - start;
+
+        deleteAllRecordsFromProvider();
+
+        start = System.nanoTime();
+        for (int i = 0; i < INGEST_BENCHMARK_SYNCS; i++) {
+            ingestForecast(createForecastBatch(today, INGEST_FORECAST_DAYS), cutoff);
+        }
+        long ingestNanos = System.nanoTime() - start;
+
+        Log.d(LOG_TAG, "Forecast of " + INGEST_FORECAST_DAYS + " days, mean per sync: query/" +
+                "bulkInsert/delete " + (sequenceNanos / INGEST_BENCHMARK_SYNCS / 1000) +
+                "us, single ingest " + (ingestNanos / INGEST_BENCHMARK_SYNCS / 1000) + "us");
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(INGEST_FORECAST_DAYS, cursor.getCount());
+        cursor.close();
+    }
+
+    static private final int INGEST_BENCHMARK_REPEATS = 7;
+
+    /*
+        Throughput of the packed ingest against a ContentValues bulkInsert of the same rows.
+        The timings include building the input, since avoiding the boxed ContentValues is part
+        of what the batch is for: each path builds its own, ContentValues for bulkInsert and
+        primitives for the batch.  One untimed pass per size warms both paths up, then each is
+        timed several times and the median reported.
+     */
+    public void testForecastBatchThroughput() {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, location));
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+        for (int rows : new int[]{14, 140, 1400}) {
+            long[] bulkInsertMicros = new long[INGEST_BENCHMARK_REPEATS];
+            long[] ingestMicros = new long[INGEST_BENCHMARK_REPEATS];
+            for (int run = -1; run < INGEST_BENCHMARK_REPEATS; run++) {
+                long start = System.nanoTime();
+                ContentValues[] values = createForecastValues(locationRowId, today, rows);
+                int bulkInserted = mContext.getContentResolver().bulkInsert(
+                        WeatherEntry.CONTENT_URI, values);
+                long bulkInsertNanos = System.nanoTime() - start;
+                assertEquals(rows, bulkInserted);
+
+                mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+                start = System.nanoTime();
+                Bundle result = ingestForecast(createForecastBatch(today, rows), 0);
+                long ingestNanos = System.nanoTime() - start;
+                assertEquals(rows, result.getInt(WeatherContract.KEY_INGEST_INSERTED));
+
+                mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+                // Run -1 is the warm-up
+                if (run >= 0) {
+                    bulkInsertMicros[run] = bulkInsertNanos / 1000;
+                    ingestMicros[run] = ingestNanos / 1000;
+                }
+            }
+            long bulkInsertMedian = recordIngest(rows + " rows bulkInsert", bulkInsertMicros, rows);
+            long ingestMedian = recordIngest(rows + " rows packed ingest", ingestMicros, rows);
+            Log.d(LOG_TAG, rows + " rows: bulkInsert " + bulkInsertMedian +
+                    "us, packed ingest " + ingestMedian + "us (medians)");
+        }
+    }
+
+    // Records one path's runs, and returns their median
+    private long recordIngest(String scenario, long[] micros, int rows) {
+        long[] sorted = micros.clone();
+        Arrays.sort(sorted);
+        long median = BenchmarkResults.percentile(sorted, 50);
+        BenchmarkResults.record(mContext, LOG_TAG, scenario, micros,
+                rows * 1000000.0 / Math.max(median, 1));
+        return median;
+    }
+
+    /*
+        The sync stats table only keeps the newest rows, however many syncs are recorded.
+     */
+    public void testSyncStatsRingBuffer() {
+        Uri uri = WeatherContract.SyncStatsEntry.CONTENT_URI;
+        mContext.getContentResolver().delete(uri, null, null);
+
+        int stagesPerSync = 16;
+        int syncs = WeatherProvider.SYNC_STATS_MAX_ROWS / stagesPerSync + 4;
+        for (int sync = 0; sync < syncs; sync++) {
+            ContentValues[] stages = new ContentValues[stagesPerSync];
+            for (int i = 0; i < stagesPerSync; i++) {
+                stages[i] = new ContentValues();
+                stages[i].put(WeatherContract.SyncStatsEntry.COLUMN_SYNC_START, sync);
+                stages[i].put(WeatherContract.SyncStatsEntry.COLUMN_STAGE, "stage" + i);
+                stages[i].put(WeatherContract.SyncStatsEntry.COLUMN_DURATION_MICROS, 1000 + i);
+                stages[i].put(WeatherContract.SyncStatsEntry.COLUMN_BYTES, 10 * i);
+                stages[i].put(WeatherContract.SyncStatsEntry.COLUMN_ROWS, i);
+            }
+            assertEquals(stagesPerSync, mContext.getContentResolver().bulkInsert(uri, stages));
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[]{WeatherContract.SyncStatsEntry.COLUMN_SYNC_START}, null, null,
+                WeatherContract.SyncStatsEntry._ID + " ASC");
+        assertEquals("Error: The sync stats should be trimmed to the newest rows",
+                WeatherProvider.SYNC_STATS_MAX_ROWS, cursor.getCount());
+        cursor.moveToLast();
+        assertEquals("Error: The newest sync should have been kept", syncs - 1, cursor.getLong(0));
+        cursor.moveToFirst();
+        assertEquals("Error: The oldest syncs should have been dropped",
+                syncs - WeatherProvider.SYNC_STATS_MAX_ROWS / stagesPerSync, cursor.getLong(0));
+        cursor.close();
+
+        mContext.getContentResolver().delete(uri, null, null);
+    }
 }
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.BenchmarkResults;
+import com.example.android.sunshine.core.JulianDay;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Seeds the provider with N locations by M days of history and times the operations whose
+    cost grows with the tables: the weather bulkInsert, retention deletes, the location joins
+    and change notification fan-out.  Results go to logcat under "ProviderScaling" and to the
+    BenchmarkResults CSV, tagged with the commit, so schema and index changes can be compared
+    run against run.
+
+    The largest scale takes minutes; run only the two smaller ones with "-e size medium".
+ */
+public class TestProviderScaling extends AndroidTestCase {
+    private static final String LOG_TAG = "ProviderScaling";
+
+    private static final int QUERY_LOCATIONS = 100;
+    private static final int RETENTION_ROUNDS = 10;
+    private static final int NOTIFY_ROUNDS = 20;
+    private static final int[] FAN_OUTS = {1, 10, 100};
+    private static final long NOTIFY_TIMEOUT_SECONDS = 10;
+
+    private final TimeZone mZone = TimeZone.getDefault();
+    private final Random mRandom = new Random(42);
+    private HandlerThread mObserverThread;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mObserverThread = new HandlerThread(LOG_TAG);
+        mObserverThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mObserverThread.quit();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @MediumTest
+    public void testTenLocationsOneMonth() throws InterruptedException {
+        runScale(10, 30);
+    }
+
+    @MediumTest
+    public void testTwoHundredLocationsThreeMonths() throws InterruptedException {
+        runScale(200, 90);
+    }
+
+    @LargeTest
+    public void testTwoThousandLocationsOneYear() throws InterruptedException {
+        runScale(2000, 365);
+    }
+
+    private void runScale(int locationCount, int days) throws InterruptedException {
+        String scale = locationCount + "x" + days;
+        String[] locations = insertLocations(locationCount);
+        long[] locationIds = getLocationIds(locations);
+        int firstDay = JulianDay.today(mZone) - days + 1;
+
+        measureBulkInsert(scale, locationIds, firstDay, days);
+        measureQueries(scale, locations, firstDay + days - 1);
+        measureNotifications(scale, locations, locationIds[0], firstDay + days - 1);
+        measureRetention(scale, locationCount, firstDay, days);
+    }
+
+    private String[] insertLocations(int count) {
+        String[] locations = new String[count];
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            locations[i] = String.format(Locale.US, "%05d", i);
+            values[i] = new ContentValues();
+            values[i].put(LocationEntry.COLUMN_LOCATION_SETTING, locations[i]);
+            values[i].put(LocationEntry.COLUMN_CITY_NAME, "City " + locations[i]);
+            values[i].put(LocationEntry.COLUMN_COORD_LAT, -90 + mRandom.nextDouble() * 180);
+            values[i].put(LocationEntry.COLUMN_COORD_LONG, -180 + mRandom.nextDouble() * 360);
+        }
+        assertEquals(count, mContext.getContentResolver().bulkInsert(
+                LocationEntry.CONTENT_URI, values));
+        return locations;
+    }
+
+    private long[] getLocationIds(String[] locations) {
+        long[] ids = new long[locations.length];
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null,
+                LocationEntry.COLUMN_LOCATION_SETTING + " ASC");
+        assertNotNull(cursor);
+        try {
+            assertEquals(locations.length, cursor.getCount());
+            // Location settings are zero padded, so they sort in insertion order
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private ContentValues createDay(long locationId, int julianDay) {
+        ContentValues weather = new ContentValues();
+        double min = -10 + mRandom.nextInt(300) / 10.0;
+        weather.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        weather.put(WeatherEntry.COLUMN_DATE, JulianDay.startOfDay(julianDay, mZone));
+        weather.put(WeatherEntry.COLUMN_DEGREES, mRandom.nextInt(360));
+        weather.put(WeatherEntry.COLUMN_HUMIDITY, 20 + mRandom.nextInt(80));
+        weather.put(WeatherEntry.COLUMN_PRESSURE, 990 + mRandom.nextInt(400) / 10.0);
+        weather.put(WeatherEntry.COLUMN_MAX_TEMP, min + mRandom.nextInt(150) / 10.0);
+        weather.put(WeatherEntry.COLUMN_MIN_TEMP, min);
+        weather.put(WeatherEntry.COLUMN_SHORT_DESC, "Clouds");
+        weather.put(WeatherEntry.COLUMN_WIND_SPEED, mRandom.nextInt(200) / 10.0);
+        weather.put(WeatherEntry.COLUMN_WEATHER_ID, 800 + mRandom.nextInt(5));
+        return weather;
+    }
+
+    /**
+     * Seeds the history one location at a time, the way a sync of each location would.
+     */
+    private void measureBulkInsert(String scale, long[] locationIds, int firstDay, int days) {
+        ContentResolver resolver = mContext.getContentResolver();
+        long[] micros = new long[locationIds.length];
+        long total = 0;
+        for (int i = 0; i < locationIds.length; i++) {
+            ContentValues[] values = new ContentValues[days];
+            for (int day = 0; day < days; day++) {
+                values[day] = createDay(locationIds[i], firstDay + day);
+            }
+            long start = SystemClock.elapsedRealtimeNanos();
+            int inserted = resolver.bulkInsert(WeatherEntry.CONTENT_URI, values);
+            micros[i] = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+            total += micros[i];
+            assertEquals(days, inserted);
+        }
+        BenchmarkResults.record(mContext, LOG_TAG, scale + " bulkInsert", micros,
+                (double) locationIds.length * days / Math.max(total, 1) * 1000000);
+    }
+
+    /**
+     * Runs each of the location joins against a spread of locations.  Each uri is asked for
+     * once, so the query cache never answers.
+     */
+    private void measureQueries(String scale, String[] locations, int today) {
+        int count = Math.min(QUERY_LOCATIONS, locations.length);
+        long todayMillis = JulianDay.startOfDay(today, mZone);
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+
+        long[] all = new long[count];
+        long[] fromToday = new long[count];
+        long[] oneDay = new long[count];
+        long totalAll = 0;
+        long totalFromToday = 0;
+        long totalOneDay = 0;
+        for (int i = 0; i < count; i++) {
+            String location = locations[i * locations.length / count];
+            all[i] = timeQuery(WeatherEntry.buildWeatherLocation(location), sortOrder, -1);
+            totalAll += all[i];
+            fromToday[i] = timeQuery(WeatherEntry.buildWeatherLocationWithStartDate(
+                    location, todayMillis), sortOrder, 1);
+            totalFromToday += fromToday[i];
+            oneDay[i] = timeQuery(WeatherEntry.buildWeatherLocationWithDate(
+                    location, todayMillis), null, 1);
+            totalOneDay += oneDay[i];
+        }
+        BenchmarkResults.record(mContext, LOG_TAG, scale + " query location", all,
+                count / (Math.max(totalAll, 1) / 1000000.0));
+        BenchmarkResults.record(mContext, LOG_TAG, scale + " query location from date",
+                fromToday, count / (Math.max(totalFromToday, 1) / 1000000.0));
+        BenchmarkResults.record(mContext, LOG_TAG, scale + " query location and date", oneDay,
+                count / (Math.max(totalOneDay, 1) / 1000000.0));
+    }
+
+    /**
+     * @param expectedRows the row count to check for, or -1 for any non-empty result
+     * @return the time to run the query and fill the cursor, in microseconds
+     */
+    private long timeQuery(Uri uri, String sortOrder, int expectedRows) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, sortOrder);
+        assertNotNull(cursor);
+        try {
+            // getCount() fills the first window, which is where the query actually runs
+            int rows = cursor.getCount();
+            long micros = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+            if (expectedRows < 0) {
+                assertTrue("Error: No rows for " + uri, rows > 0);
+            } else {
+                assertEquals("Error: Wrong row count for " + uri, expectedRows, rows);
+            }
+            return micros;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Times a single-row weather insert until every registered observer has heard about it.
+     */
+    private void measureNotifications(String scale, String[] locations, long locationId,
+                                      int today) throws InterruptedException {
+        ContentResolver resolver = mContext.getContentResolver();
+        Handler handler = new Handler(mObserverThread.getLooper());
+        for (int fanOut : FAN_OUTS) {
+            if (fanOut > locations.length) {
+                break;
+            }
+            final CountDownLatch[] latch = new CountDownLatch[1];
+            ContentObserver[] observers = new ContentObserver[fanOut];
+            for (int i = 0; i < fanOut; i++) {
+                observers[i] = new ContentObserver(handler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        synchronized (latch) {
+                            if (latch[0] != null) {
+                                latch[0].countDown();
+                            }
+                        }
+                    }
+                };
+                // Notifying the weather uri reaches observers of every location under it
+                resolver.registerContentObserver(
+                        WeatherEntry.buildWeatherLocation(locations[i]), false, observers[i]);
+            }
+            try {
+                long[] micros = new long[NOTIFY_ROUNDS];
+                long total = 0;
+                for (int round = 0; round < NOTIFY_ROUNDS; round++) {
+                    CountDownLatch roundLatch = new CountDownLatch(fanOut);
+                    synchronized (latch) {
+                        latch[0] = roundLatch;
+                    }
+                    long start = SystemClock.elapsedRealtimeNanos();
+                    // Replaces today's row, so the table doesn't grow
+                    resolver.bulkInsert(WeatherEntry.CONTENT_URI,
+                            new ContentValues[]{createDay(locationId, today)});
+                    assertTrue("Error: Not every observer was notified",
+                            roundLatch.await(NOTIFY_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                    micros[round] = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+                    total += micros[round];
+                }
+                BenchmarkResults.record(mContext, LOG_TAG, scale + " notify " + fanOut, micros,
+                        NOTIFY_ROUNDS / (Math.max(total, 1) / 1000000.0));
+            } finally {
+                for (ContentObserver observer : observers) {
+                    resolver.unregisterContentObserver(observer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest day of every location, one day per round, as the daily retention would.
+     */
+    private void measureRetention(String scale, int locationCount, int firstDay, int days) {
+        int rounds = Math.min(RETENTION_ROUNDS, days - 1);
+        long[] micros = new long[rounds];
+        long total = 0;
+        for (int round = 0; round < rounds; round++) {
+            long cutoff = JulianDay.startOfDay(firstDay + round, mZone);
+            long start = SystemClock.elapsedRealtimeNanos();
+            int deleted = mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                    WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(cutoff)});
+            micros[round] = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+            total += micros[round];
+            assertEquals(locationCount, deleted);
+        }
+        BenchmarkResults.record(mContext, LOG_TAG, scale + " retention", micros,
+                (double) rounds * locationCount / Math.max(total, 1) * 1000000);
+    }
+}
@@ -36,6 +36,11 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/current"
+    private static final Uri TEST_CURRENT_CONDITIONS_DIR = WeatherContract.CurrentConditionsEntry.CONTENT_URI;
+    private static final Uri TEST_CURRENT_CONDITIONS_WITH_LOCATION_DIR = WeatherContract.CurrentConditionsEntry.buildCurrentConditionsUri(LOCATION_QUERY);
+    // content://com.example.android.sunshine.app/sync_stats"
+    private static final Uri TEST_SYNC_STATS_DIR = WeatherContract.SyncStatsEntry.CONTENT_URI;
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +58,11 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The CURRENT CONDITIONS URI was matched incorrectly.",
+                testMatcher.match(TEST_CURRENT_CONDITIONS_DIR), WeatherProvider.CURRENT_CONDITIONS);
+        assertEquals("Error: The CURRENT CONDITIONS WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_CURRENT_CONDITIONS_WITH_LOCATION_DIR), WeatherProvider.CURRENT_CONDITIONS_WITH_LOCATION);
+        assertEquals("Error: The SYNC STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_STATS_DIR), WeatherProvider.SYNC_STATS);
     }
 }
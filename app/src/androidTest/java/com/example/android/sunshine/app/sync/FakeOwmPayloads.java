@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Random;
+
+/*
+    Forecast bodies in the shape of OpenWeatherMap's daily forecast API, for FakeOwmServer to
+    serve.
+ */
+class FakeOwmPayloads {
+
+    // A response recorded from the real API for 94043, trimmed to what the sync reads
+    static final String MOUNTAIN_VIEW_7_DAYS = "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\"," +
+            "\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\",\"population\":0}," +
+            "\"cod\":\"200\",\"message\":0.0118,\"cnt\":7,\"list\":[" +
+            "{\"dt\":1445976000,\"temp\":{\"day\":21.85,\"min\":11.02,\"max\":21.85,\"night\":11.02,\"eve\":18.6,\"morn\":21.85},\"pressure\":1006.77,\"humidity\":69,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":1.41,\"deg\":306,\"clouds\":0}," +
+            "{\"dt\":1446062400,\"temp\":{\"day\":20.68,\"min\":10.5,\"max\":22.03,\"night\":12.37,\"eve\":18.9,\"morn\":10.5},\"pressure\":1008.21,\"humidity\":71,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}],\"speed\":1.66,\"deg\":299,\"clouds\":12}," +
+            "{\"dt\":1446148800,\"temp\":{\"day\":19.22,\"min\":12.01,\"max\":19.83,\"night\":13.08,\"eve\":17.54,\"morn\":12.01},\"pressure\":1009.45,\"humidity\":78,\"weather\":[{\"id\":802,\"main\":\"Clouds\",\"description\":\"scattered clouds\",\"icon\":\"03d\"}],\"speed\":2.31,\"deg\":281,\"clouds\":40}," +
+            "{\"dt\":1446235200,\"temp\":{\"day\":17.1,\"min\":11.3,\"max\":17.6,\"night\":11.3,\"eve\":15.8,\"morn\":12.9},\"pressure\":1010.02,\"humidity\":85,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":3.87,\"deg\":196,\"clouds\":76,\"rain\":1.2}," +
+            "{\"dt\":1446321600,\"temp\":{\"day\":15.49,\"min\":9.8,\"max\":16.02,\"night\":9.8,\"eve\":14.1,\"morn\":11.4},\"pressure\":1012.64,\"humidity\":88,\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":4.52,\"deg\":205,\"clouds\":92,\"rain\":4.6}," +
+            "{\"dt\":1446408000,\"temp\":{\"day\":16.3,\"min\":8.7,\"max\":17.2,\"night\":8.7,\"eve\":15.0,\"morn\":9.9},\"pressure\":1015.3,\"humidity\":74,\"weather\":[{\"id\":803,\"main\":\"Clouds\",\"description\":\"broken clouds\",\"icon\":\"04d\"}],\"speed\":2.05,\"deg\":310,\"clouds\":64}," +
+            "{\"dt\":1446494400,\"temp\":{\"day\":18.9,\"min\":8.2,\"max\":19.4,\"night\":9.1,\"eve\":16.7,\"morn\":8.2},\"pressure\":1016.8,\"humidity\":66,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":1.22,\"deg\":322,\"clouds\":0}" +
+            "]}";
+
+    // The condition ids OWM hands out, one per art bucket and then some
+    private static final int[] WEATHER_IDS = {200, 302, 500, 511, 601, 701, 741, 761, 781, 800, 801, 802, 803};
+    private static final String[] WEATHER_MAINS = {"Thunderstorm", "Drizzle", "Rain", "Rain", "Snow", "Mist", "Fog", "Dust", "Tornado", "Clear", "Clouds", "Clouds", "Clouds"};
+
+    /**
+     * @return a synthetic forecast with the given number of days.  The same seed gives the same
+     * forecast.
+     */
+    static String forecast(String cityName, double lat, double lon, int days, long seed) {
+        Random random = new Random(seed);
+        try {
+            JSONObject coord = new JSONObject()
+                    .put("lat", lat)
+                    .put("lon", lon);
+            JSONObject city = new JSONObject()
+                    .put("name", cityName)
+                    .put("coord", coord);
+            JSONArray list = new JSONArray();
+            for (int i = 0; i < days; i++) {
+                double min = -10 + random.nextInt(300) / 10.0;
+                int condition = random.nextInt(WEATHER_IDS.length);
+                JSONObject weather = new JSONObject()
+                        .put("id", WEATHER_IDS[condition])
+                        .put("main", WEATHER_MAINS[condition]);
+                list.put(new JSONObject()
+                        .put("temp", new JSONObject()
+                                .put("min", min)
+                                .put("max", min + random.nextInt(150) / 10.0))
+                        .put("pressure", 990 + random.nextInt(400) / 10.0)
+                        .put("humidity", 20 + random.nextInt(80))
+                        .put("weather", new JSONArray().put(weather))
+                        .put("speed", random.nextInt(200) / 10.0)
+                        .put("deg", random.nextInt(360)));
+            }
+            return new JSONObject()
+                    .put("city", city)
+                    .put("cod", "200")
+                    .put("cnt", days)
+                    .put("list", list)
+                    .toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the body OWM sends with a 200 status when it can't answer, e.g. for an unknown
+     * city
+     */
+    static String error(int code, String message) {
+        return "{\"cod\":\"" + code + "\",\"message\":\"" + message + "\"}";
+    }
+}
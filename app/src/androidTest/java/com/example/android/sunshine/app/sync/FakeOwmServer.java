@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    A minimal HTTP/1.1 server on the loopback interface that stands in for OpenWeatherMap.
+    Each request is answered by the current Handler, which sees the request uri (so it can use
+    the q and cnt parameters) and returns the status, body and delivery: all at once, chunked,
+    after a delay or throttled.  One connection per request, closed after the response.  The
+    server also counts requests answered at once, and responses the client hung up on.  It can
+    also serve an art pack: the same PNG for every image under the url from getArtPackUrl().
+ */
+public class FakeOwmServer {
+    private static final String LOG_TAG = FakeOwmServer.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final String FORECAST_PATH = "/data/2.5/forecast/daily";
+    static final String ART_PATH = "/art/";
+
+    public interface Handler {
+        Response handle(Uri request);
+    }
+
+    public static final class Response {
+        final int status;
+        final byte[] body;
+        String contentType = "application/json; charset=utf-8";
+        boolean chunked;
+        int chunkSize = 1024;
+        long firstByteDelayMillis;
+        // 0 for as fast as the socket takes it
+        int bytesPerSecond;
+
+        Response(int status, String body) {
+            this(status, body.getBytes(UTF_8));
+        }
+
+        Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        static Response json(String body) {
+            return new Response(200, body);
+        }
+
+        static Response status(int status, String body) {
+            return new Response(status, body);
+        }
+
+        static Response png(byte[] body) {
+            Response response = new Response(200, body);
+            response.contentType = "image/png";
+            return response;
+        }
+
+        Response chunked(int chunkSize) {
+            this.chunked = true;
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        Response delayed(long firstByteDelayMillis) {
+            this.firstByteDelayMillis = firstByteDelayMillis;
+            return this;
+        }
+
+        Response throttled(int bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Thread mAcceptThread;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private volatile Handler mHandler;
+    private volatile byte[] mArt;
+    // Guarded by this
+    private int mActiveRequests;
+    private int mMaxActiveRequests;
+    private int mDroppedCount;
+
+    public FakeOwmServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "FakeOwmServer");
+        mAcceptThread.start();
+    }
+
+    /**
+     * @return the forecast url to hand to {@link SunshineSyncAdapter#setForecastBaseUrl}
+     */
+    public String getForecastBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + FORECAST_PATH + "?";
+    }
+
+    /**
+     * @return an art pack url, in the form of the art pack preference, for the art served by
+     * {@link #setArt}
+     */
+    public String getArtPackUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + ART_PATH + "%s.png";
+    }
+
+    public void setArt(byte[] png) {
+        mArt = png;
+    }
+
+    public void setHandler(Handler handler) {
+        mHandler = handler;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return the most requests that were being answered at the same time
+     */
+    public synchronized int getMaxActiveRequests() {
+        return mMaxActiveRequests;
+    }
+
+    /**
+     * @return how many responses the client hung up on before they were fully written
+     */
+    public synchronized int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    private synchronized void onRequestStart() {
+        mActiveRequests++;
+        mMaxActiveRequests = Math.max(mMaxActiveRequests, mActiveRequests);
+    }
+
+    private synchronized void onRequestEnd(boolean dropped) {
+        mActiveRequests--;
+        if (dropped) {
+            mDroppedCount++;
+        }
+    }
+
+    public void shutdown() throws IOException, InterruptedException {
+        mServerSocket.close();
+        mAcceptThread.join();
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // Closed by shutdown()
+                return;
+            }
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "FakeOwmServer-connection").start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), UTF_8));
+            String requestLine = in.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            // Skip the headers; nothing the sync sends changes the answer
+            String header;
+            while ((header = in.readLine()) != null && !header.isEmpty()) {
+                // ignore
+            }
+            mRequestCount.incrementAndGet();
+
+            // GET /data/2.5/forecast/daily?q=... HTTP/1.1
+            String[] parts = requestLine.split(" ");
+            Uri request = Uri.parse("http://127.0.0.1" + (parts.length > 1 ? parts[1] : "/"));
+            onRequestStart();
+            boolean dropped = false;
+            try {
+                byte[] art = mArt;
+                Response response;
+                if (FORECAST_PATH.equals(request.getPath())) {
+                    response = mHandler.handle(request);
+                } else if (art != null && request.getPath().startsWith(ART_PATH)) {
+                    response = Response.png(art);
+                } else {
+                    response = Response.status(404,
+                            "{\"cod\":\"404\",\"message\":\"no such path\"}");
+                }
+                try {
+                    write(socket.getOutputStream(), response);
+                } catch (IOException e) {
+                    // The client hung up part way through
+                    dropped = true;
+                    throw e;
+                }
+            } finally {
+                onRequestEnd(dropped);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error serving request", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void write(OutputStream out, Response response) throws IOException {
+        if (response.firstByteDelayMillis > 0) {
+            SystemClock.sleep(response.firstByteDelayMillis);
+        }
+        StringBuilder head = new StringBuilder()
+                .append("HTTP/1.1 ").append(response.status).append(' ')
+                .append(response.status == 200 ? "OK" : "Error").append("\r\n")
+                .append("Content-Type: ").append(response.contentType).append("\r\n")
+                .append("Connection: close\r\n");
+        if (response.chunked) {
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else {
+            head.append("Content-Length: ").append(response.body.length).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(UTF_8));
+
+        int pieceSize = response.chunked ? response.chunkSize : 1024;
+        for (int offset = 0; offset < response.body.length; offset += pieceSize) {
+            int count = Math.min(pieceSize, response.body.length - offset);
+            if (response.chunked) {
+                out.write(String.format(Locale.US, "%x\r\n", count).getBytes(UTF_8));
+            }
+            out.write(response.body, offset, count);
+            if (response.chunked) {
+                out.write("\r\n".getBytes(UTF_8));
+            }
+            out.flush();
+            if (response.bytesPerSecond > 0) {
+                SystemClock.sleep(count * 1000L / response.bytesPerSecond);
+            }
+        }
+        if (response.chunked) {
+            out.write("0\r\n\r\n".getBytes(UTF_8));
+        }
+        out.flush();
+    }
+}
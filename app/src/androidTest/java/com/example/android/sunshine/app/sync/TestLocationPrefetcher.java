@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+public class TestLocationPrefetcher extends AndroidTestCase {
+
+    private static final String LOCATION = "10001";
+    private static final int MIN_LENGTH = 3;
+    private static final long WAIT_MILLIS = LocationPrefetcher.DEBOUNCE_MILLIS + 3000;
+    // A week's forecast takes a couple of seconds at this rate, well over the debounce, and
+    // the server notices a hang up within a chunk or two
+    private static final int SLOW_BYTES_PER_SECOND = 512;
+    private static final int SLOW_CHUNK_BYTES = 64;
+    private static final long SLOW_WAIT_MILLIS = 15 * 1000;
+    // A commit goes through the sync manager, which takes its time even for an expedited sync
+    private static final long SYNC_WAIT_MILLIS = 30 * 1000;
+
+    private FakeOwmServer mServer;
+    private LocationPrefetcher mPrefetcher;
+    private String mSavedLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeOwmServer(new FakeOwmServer.Handler() {
+            @Override
+            public FakeOwmServer.Response handle(Uri request) {
+                return FakeOwmServer.Response.json(FakeOwmPayloads.forecast(
+                        "City " + request.getQueryParameter("q"), 40.7, -74.0, 7, 1));
+            }
+        });
+        SunshineSyncAdapter.setForecastBaseUrl(mServer.getForecastBaseUrl());
+        mPrefetcher = LocationPrefetcher.getInstance(mContext);
+        mPrefetcher.discard();
+        mSavedLocation = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(mContext.getString(R.string.pref_location_key), null);
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefetcher.discard();
+        SunshineSyncAdapter.setForecastBaseUrl(null);
+        mServer.shutdown();
+        deleteAllRecords();
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .edit();
+        if (mSavedLocation != null) {
+            editor.putString(mContext.getString(R.string.pref_location_key), mSavedLocation);
+        } else {
+            editor.remove(mContext.getString(R.string.pref_location_key));
+        }
+        editor.commit();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        ForecastSnapshot.delete(mContext, LOCATION);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private void type(String text) {
+        for (int i = 1; i <= text.length(); i++) {
+            mPrefetcher.onLocationTyped(text.substring(0, i), MIN_LENGTH);
+        }
+    }
+
+    private void waitForStaged(final String location) {
+        new PollingCheck(WAIT_MILLIS) {
+            @Override
+            protected boolean check() {
+                return mPrefetcher.hasStaged(location);
+            }
+        }.run();
+    }
+
+    private void answerSlowly() {
+        mServer.setHandler(new FakeOwmServer.Handler() {
+            @Override
+            public FakeOwmServer.Response handle(Uri request) {
+                return FakeOwmServer.Response.json(FakeOwmPayloads.forecast(
+                        "City " + request.getQueryParameter("q"), 40.7, -74.0, 7, 1))
+                        .chunked(SLOW_CHUNK_BYTES)
+                        .throttled(SLOW_BYTES_PER_SECOND);
+            }
+        });
+    }
+
+    private void waitForRequests(final int count) {
+        new PollingCheck(WAIT_MILLIS) {
+            @Override
+            protected boolean check() {
+                return mServer.getRequestCount() >= count;
+            }
+        }.run();
+    }
+
+    private int countDays(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(location), null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testOnlySettledTextIsFetched() {
+        type(LOCATION);
+        waitForStaged(LOCATION);
+        assertEquals("Error: Only the text typing settled on should be fetched",
+                1, mServer.getRequestCount());
+        assertFalse(mPrefetcher.hasStaged(LOCATION.substring(0, MIN_LENGTH)));
+        assertEquals("Error: Nothing should be stored before the location is confirmed",
+                0, countDays(LOCATION));
+    }
+
+    public void testCommitStoresStagedForecast() {
+        type(LOCATION);
+        waitForStaged(LOCATION);
+
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), LOCATION)
+                .commit();
+        assertTrue(mPrefetcher.commit(LOCATION));
+        new PollingCheck(SYNC_WAIT_MILLIS) {
+            @Override
+            protected boolean check() {
+                return countDays(LOCATION) == 7;
+            }
+        }.run();
+        assertEquals("Error: The confirmed location shouldn't be fetched a second time",
+                1, mServer.getRequestCount());
+        assertFalse("Error: A staged forecast should only be used once",
+                mPrefetcher.hasStaged(LOCATION));
+    }
+
+    public void testSupersededFetchesAreCancelled() {
+        answerSlowly();
+        final String[] locations = {"10001", "10002", "10003"};
+        for (int i = 0; i < locations.length; i++) {
+            type(locations[i]);
+            // Each one is still downloading when the next one settles
+            waitForRequests(i + 1);
+        }
+        new PollingCheck(SLOW_WAIT_MILLIS) {
+            @Override
+            protected boolean check() {
+                return mPrefetcher.hasStaged(locations[2]);
+            }
+        }.run();
+        new PollingCheck(WAIT_MILLIS) {
+            @Override
+            protected boolean check() {
+                return mServer.getDroppedCount() == 2;
+            }
+        }.run();
+
+        assertFalse("Error: A superseded fetch shouldn't be staged",
+                mPrefetcher.hasStaged(locations[0]));
+        assertFalse("Error: A superseded fetch shouldn't be staged",
+                mPrefetcher.hasStaged(locations[1]));
+        assertEquals(locations.length, mServer.getRequestCount());
+        assertTrue("Error: " + mServer.getMaxActiveRequests() + " fetches ran at once",
+                mServer.getMaxActiveRequests() <= 2);
+    }
+
+    public void testCommitWhileFetching() {
+        answerSlowly();
+        type(LOCATION);
+        waitForRequests(1);
+
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), LOCATION)
+                .commit();
+        assertTrue("Error: A fetch in flight should be committed when it's done",
+                mPrefetcher.commit(LOCATION));
+        new PollingCheck(SLOW_WAIT_MILLIS + SYNC_WAIT_MILLIS) {
+            @Override
+            protected boolean check() {
+                return countDays(LOCATION) == 7;
+            }
+        }.run();
+        assertEquals("Error: The confirmed location shouldn't be fetched a second time",
+                1, mServer.getRequestCount());
+        assertEquals(0, mServer.getDroppedCount());
+        assertFalse(mPrefetcher.hasStaged(LOCATION));
+    }
+
+    public void testDiscard() {
+        type(LOCATION);
+        waitForStaged(LOCATION);
+        mPrefetcher.discard();
+        assertFalse(mPrefetcher.hasStaged(LOCATION));
+        assertFalse("Error: Nothing staged should leave the caller to sync",
+                mPrefetcher.commit(LOCATION));
+    }
+
+    public void testShortTextIsIgnored() throws InterruptedException {
+        type(LOCATION.substring(0, MIN_LENGTH - 1));
+        Thread.sleep(LocationPrefetcher.DEBOUNCE_MILLIS * 2);
+        assertEquals(0, mServer.getRequestCount());
+    }
+
+    public void testErrorsAreNotStaged() throws InterruptedException {
+        mServer.setHandler(new FakeOwmServer.Handler() {
+            @Override
+            public FakeOwmServer.Response handle(Uri request) {
+                return FakeOwmServer.Response.status(500, "Internal Server Error");
+            }
+        });
+        type(LOCATION);
+        new PollingCheck(WAIT_MILLIS) {
+            @Override
+            protected boolean check() {
+                return mServer.getRequestCount() == 1;
+            }
+        }.run();
+        Thread.sleep(500);
+        assertFalse(mPrefetcher.hasStaged(LOCATION));
+    }
+}
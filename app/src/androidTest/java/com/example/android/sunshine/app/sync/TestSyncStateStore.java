@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+public class TestSyncStateStore extends AndroidTestCase {
+
+    private static final String LOCATION = "99705";
+
+    private SharedPreferences mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        clearSyncState();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearSyncState();
+        super.tearDown();
+    }
+
+    private void clearSyncState() {
+        mPrefs.edit()
+                .remove(mContext.getString(R.string.pref_location_status_key))
+                .remove(mContext.getString(R.string.pref_last_sync))
+                .remove(mContext.getString(R.string.pref_last_sync_location))
+                .remove(mContext.getString(R.string.pref_last_notification))
+                .commit();
+    }
+
+    public void testNothingWrittenBeforeFlush() {
+        SyncStateStore state = new SyncStateStore(mContext);
+        state.setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        state.setLastSync(LOCATION, 1000);
+        assertFalse("Error: The status shouldn't be written before the flush",
+                mPrefs.contains(mContext.getString(R.string.pref_location_status_key)));
+        assertFalse("Error: The last sync shouldn't be written before the flush",
+                mPrefs.contains(mContext.getString(R.string.pref_last_sync)));
+    }
+
+    public void testFlushWritesEverything() {
+        SyncStateStore state = new SyncStateStore(mContext);
+        state.setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        state.setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_OK);
+        state.setLastSync(LOCATION, 1000);
+        state.setLastNotification(2000);
+        assertTrue(state.flush());
+
+        assertEquals("Error: Only the last status should be written",
+                SunshineSyncAdapter.LOCATION_STATUS_OK,
+                mPrefs.getInt(mContext.getString(R.string.pref_location_status_key), -1));
+        assertEquals(1000, mPrefs.getLong(mContext.getString(R.string.pref_last_sync), 0));
+        assertEquals(LOCATION,
+                mPrefs.getString(mContext.getString(R.string.pref_last_sync_location), null));
+        assertEquals(2000, mPrefs.getLong(mContext.getString(R.string.pref_last_notification), 0));
+        assertEquals("Error: The status should be readable as soon as the flush returns",
+                SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+
+        assertFalse("Error: A second flush should have nothing to write", state.flush());
+    }
+
+    public void testFlushLeavesUnsetStateAlone() {
+        mPrefs.edit().putLong(mContext.getString(R.string.pref_last_sync), 1000).commit();
+        SyncStateStore state = new SyncStateStore(mContext);
+        state.setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_INVALID);
+        assertTrue(state.flush());
+        assertEquals("Error: A failed sync shouldn't touch the last sync time",
+                1000, mPrefs.getLong(mContext.getString(R.string.pref_last_sync), 0));
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.BenchmarkResults;
+
+/*
+    Runs the whole sync (fetch, parse, store, widgets, notification) against FakeOwmServer and
+    reports latency percentiles and throughput under the "SyncThroughput" tag and in the
+    BenchmarkResults CSV.  The budgets are loose enough for a slow emulator; a sync change that
+    blows through them needs a look before it goes in.
+ */
+public class TestSyncThroughput extends AndroidTestCase {
+    private static final String LOG_TAG = "SyncThroughput";
+
+    private static final String[] LOCATIONS = {"94043", "10001", "99705", "SW1A", "75001"};
+    private static final int RUNS = 20;
+
+    // p90 budgets for a single sync, in milliseconds
+    private static final long FAST_SYNC_BUDGET_MILLIS = 1500;
+    private static final long FIRST_BYTE_DELAY_MILLIS = 300;
+
+    private FakeOwmServer mServer;
+    private String mSavedLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeOwmServer(new FakeOwmServer.Handler() {
+            @Override
+            public FakeOwmServer.Response handle(Uri request) {
+                return FakeOwmServer.Response.json(FakeOwmPayloads.MOUNTAIN_VIEW_7_DAYS);
+            }
+        });
+        SunshineSyncAdapter.setForecastBaseUrl(mServer.getForecastBaseUrl());
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedLocation = prefs.getString(mContext.getString(R.string.pref_location_key), null);
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.setForecastBaseUrl(null);
+        mServer.shutdown();
+        deleteAllRecords();
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .edit();
+        if (mSavedLocation != null) {
+            editor.putString(mContext.getString(R.string.pref_location_key), mSavedLocation);
+        } else {
+            editor.remove(mContext.getString(R.string.pref_location_key));
+        }
+        editor.commit();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private void setLocation(String location) {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), location)
+                .commit();
+    }
+
+    /**
+     * Runs one sync on this thread, the way the sync manager would.
+     *
+     * @return how long it took, in microseconds
+     */
+    private long sync() {
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, true);
+        long start = SystemClock.elapsedRealtimeNanos();
+        adapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                new SyncResult());
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+    }
+
+    private int countDays(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(location), null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Syncs {@link #RUNS} times, round-robin over the given locations, and records the latency
+     * percentiles and the throughput in forecast days per second.
+     *
+     * @return the 90th percentile latency, in milliseconds
+     */
+    private long measure(String scenario, String[] locations, int daysPerSync) {
+        // The first sync pays for opening the database and loading classes
+        setLocation(locations[0]);
+        sync();
+
+        long[] latencies = new long[RUNS];
+        long total = 0;
+        for (int i = 0; i < RUNS; i++) {
+            setLocation(locations[i % locations.length]);
+            latencies[i] = sync();
+            total += latencies[i];
+            assertEquals("Error: Sync " + i + " of " + scenario + " failed",
+                    SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+        }
+        double seconds = Math.max(total, 1) / 1000000.0;
+        return BenchmarkResults.record(mContext, LOG_TAG, scenario, latencies,
+                RUNS * daysPerSync / seconds) / 1000;
+    }
+
+    public void testRecordedPayload() {
+        setLocation(LOCATIONS[0]);
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+        assertEquals("Error: All 7 recorded days should be stored", 7, countDays(LOCATIONS[0]));
+        assertEquals(1, mServer.getRequestCount());
+
+        long p90 = measure("recorded", new String[]{LOCATIONS[0]}, 7);
+        assertTrue("Error: p90 sync latency " + p90 + "ms is over budget",
+                p90 < FAST_SYNC_BUDGET_MILLIS);
+    }
+
+    public void testDayCounts() {
+        for (final int days : new int[]{1, 7, 16}) {
+            mServer.setHandler(new FakeOwmServer.Handler() {
+                @Override
+                public FakeOwmServer.Response handle(Uri request) {
+                    return FakeOwmServer.Response.json(FakeOwmPayloads.forecast(
+                            request.getQueryParameter("q"), 37.4, -122.1, days, days));
+                }
+            });
+            long p90 = measure(days + " days", new String[]{LOCATIONS[0]}, days);
+            assertTrue("Error: p90 sync latency for " + days + " days " + p90 +
+                    "ms is over budget", p90 < FAST_SYNC_BUDGET_MILLIS);
+        }
+    }
+
+    public void testManyLocations() {
+        mServer.setHandler(new FakeOwmServer.Handler() {
+            @Override
+            public FakeOwmServer.Response handle(Uri request) {
+                String location = request.getQueryParameter("q");
+                return FakeOwmServer.Response.json(FakeOwmPayloads.forecast(
+                        "City " + location, 0, 0, 14, location.hashCode()));
+            }
+        });
+        long p90 = measure("locations", LOCATIONS, 14);
+        assertTrue("Error: p90 sync latency over " + LOCATIONS.length + " locations " + p90 +
+                "ms is over budget", p90 < FAST_SYNC_BUDGET_MILLIS);
+        for (String location : LOCATIONS) {
+            assertTrue("Error: No forecast stored for " + location, countDays(location) > 0);
+        }
+    }
+
+    public void testChunkedResponse() {
+        mServer.setHandler(new FakeOwmServer.Handler() {
+            @Override
+            public FakeOwmServer.Response handle(Uri request) {
+                return FakeOwmServer.Response.json(FakeOwmPayloads.MOUNTAIN_VIEW_7_DAYS)
+                        .chunked(256);
+            }
+        });
+        long p90 = measure("chunked", new String[]{LOCATIONS[0]}, 7);
+        assertTrue("Error: p90 sync latency for a chunked response " + p90 +
+                "ms is over budget", p90 < FAST_SYNC_BUDGET_MILLIS);
+    }
+
+    public void testSlowResponses() {
+        mServer.setHandler(new FakeOwmServer.Handler() {
+            @Override
+            public FakeOwmServer.Response handle(Uri request) {
+                return FakeOwmServer.Response.json(FakeOwmPayloads.MOUNTAIN_VIEW_7_DAYS)
+                        .delayed(FIRST_BYTE_DELAY_MILLIS);
+            }
+        });
+        long p90 = measure("slow first byte", new String[]{LOCATIONS[0]}, 7);
+        // Waiting on the server shouldn't add anything on top of the wait itself
+        assertTrue("Error: p90 sync latency with a slow server " + p90 + "ms is over budget",
+                p90 < FAST_SYNC_BUDGET_MILLIS + FIRST_BYTE_DELAY_MILLIS);
+
+        // Roughly a poor 2G link: the recorded payload takes about a second
+        final int bytesPerSecond = FakeOwmPayloads.MOUNTAIN_VIEW_7_DAYS.length();
+        mServer.setHandler(new FakeOwmServer.Handler() {
+            @Override
+            public FakeOwmServer.Response handle(Uri request) {
+                return FakeOwmServer.Response.json(FakeOwmPayloads.MOUNTAIN_VIEW_7_DAYS)
+                        .throttled(bytesPerSecond);
+            }
+        });
+        setLocation(LOCATIONS[0]);
+        long latency = sync() / 1000;
+        Log.i(LOG_TAG, "throttled: " + latency + "ms");
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+        assertTrue("Error: Throttled sync " + latency + "ms is over budget",
+                latency < FAST_SYNC_BUDGET_MILLIS + 1000);
+    }
+
+    public void testErrors() {
+        setLocation(LOCATIONS[0]);
+
+        mServer.setHandler(new FakeOwmServer.Handler() {
+            @Override
+            public FakeOwmServer.Response handle(Uri request) {
+                return FakeOwmServer.Response.json(FakeOwmPayloads.error(404, "city not found"));
+            }
+        });
+        sync();
+        assertEquals("Error: An unknown city should mark the location invalid",
+                SunshineSyncAdapter.LOCATION_STATUS_INVALID, Utility.getLocationStatus(mContext));
+
+        mServer.setHandler(new FakeOwmServer.Handler() {
+            @Override
+            public FakeOwmServer.Response handle(Uri request) {
+                return FakeOwmServer.Response.json(FakeOwmPayloads.error(429, "too many requests"));
+            }
+        });
+        sync();
+        assertEquals("Error: An error code in the body should mark the server down",
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+
+        mServer.setHandler(new FakeOwmServer.Handler() {
+            @Override
+            public FakeOwmServer.Response handle(Uri request) {
+                return FakeOwmServer.Response.status(500, "Internal Server Error");
+            }
+        });
+        sync();
+        assertEquals("Error: An HTTP 500 should mark the server down",
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+
+        mServer.setHandler(new FakeOwmServer.Handler() {
+            @Override
+            public FakeOwmServer.Response handle(Uri request) {
+                return FakeOwmServer.Response.json("<html>Bad Gateway</html>");
+            }
+        });
+        sync();
+        assertEquals("Error: A body that isn't JSON should mark the server invalid",
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                Utility.getLocationStatus(mContext));
+
+        assertEquals("Error: No forecast should be stored from an error", 0,
+                countDays(LOCATIONS[0]));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+    Percentiles for the on-device benchmarks, and a CSV of every result tagged with the commit
+    the build came from, so runs of different commits can be lined up.  The file is
+    benchmarks/results.csv in the app's external files directory:
+
+        adb pull /sdcard/Android/data/com.example.android.sunshine.app/files/benchmarks/results.csv
+ */
+public class BenchmarkResults {
+    private static final String DIR = "benchmarks";
+    private static final String FILE = "results.csv";
+    private static final String HEADER =
+            "commit,device,sdk,suite,scenario,samples,p50_us,p90_us,p99_us,ops_per_sec";
+
+    /**
+     * @param sorted samples in ascending order
+     */
+    public static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * Logs one scenario's latencies under the suite's tag and appends them to the CSV.
+     *
+     * @param micros one latency per operation, in microseconds; sorted in place
+     * @param opsPerSecond the scenario's throughput, in whatever unit of work it counts
+     * @return the 90th percentile, in microseconds
+     */
+    public static long record(Context context, String suite, String scenario, long[] micros,
+                              double opsPerSecond) {
+        Arrays.sort(micros);
+        long p50 = percentile(micros, 50);
+        long p90 = percentile(micros, 90);
+        long p99 = percentile(micros, 99);
+        Log.i(suite, String.format(Locale.US, "%s: p50 %dus p90 %dus p99 %dus, %.1f ops/s",
+                scenario, p50, p90, p99, opsPerSecond));
+
+        String line = String.format(Locale.US, "%s,%s,%d,%s,%s,%d,%d,%d,%d,%.1f",
+                BuildConfig.GIT_SHA, Build.MODEL.replace(',', ' '), Build.VERSION.SDK_INT,
+                suite, scenario, micros.length, p50, p90, p99, opsPerSecond);
+        File dir = context.getExternalFilesDir(DIR);
+        if (dir == null) {
+            // No external storage; the results can still be pulled with run-as
+            dir = new File(context.getFilesDir(), DIR);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return p90;
+        }
+        File file = new File(dir, FILE);
+        boolean newFile = !file.exists();
+        FileWriter out = null;
+        try {
+            out = new FileWriter(file, true);
+            if (newFile) {
+                out.write(HEADER + "\n");
+            }
+            out.write(line + "\n");
+        } catch (IOException e) {
+            Log.w(suite, "Error recording benchmark results", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return p90;
+    }
+}
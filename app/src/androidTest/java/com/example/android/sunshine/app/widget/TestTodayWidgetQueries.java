@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Renders Today widgets spread over several locations and checks that the provider is only
+    asked once, however many widgets and locations there are.
+ */
+public class TestTodayWidgetQueries extends AndroidTestCase {
+
+    private static final String[] LOCATIONS = {"99705", "94043", "10001"};
+    private static final int WIDGETS_PER_LOCATION = 3;
+    // Far above anything the host hands out during a test run
+    private static final int FIRST_WIDGET_ID = 100000;
+
+    private int[] mWidgetIds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mWidgetIds = new int[LOCATIONS.length * WIDGETS_PER_LOCATION];
+        for (int i = 0; i < mWidgetIds.length; i++) {
+            mWidgetIds[i] = FIRST_WIDGET_ID + i;
+            Utility.setWidgetLocation(mContext, mWidgetIds[i], LOCATIONS[i % LOCATIONS.length]);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Utility.removeWidgetLocations(mContext, mWidgetIds);
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private void insertToday(String locationSetting, double high) {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "City " + locationSetting);
+        location.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+        location.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location);
+
+        ContentValues weather = new ContentValues();
+        weather.put(WeatherEntry.COLUMN_LOC_KEY, ContentUris.parseId(locationUri));
+        weather.put(WeatherEntry.COLUMN_DATE, System.currentTimeMillis());
+        weather.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+        weather.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        weather.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+        weather.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+        weather.put(WeatherEntry.COLUMN_MIN_TEMP, high - 10);
+        weather.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        weather.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weather.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{weather});
+    }
+
+    private int getQueryCount() {
+        Bundle stats = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_QUERY_CACHE_STATS, null, null);
+        return stats.getInt(WeatherContract.KEY_QUERY_COUNT);
+    }
+
+    public void testOneQueryForAllLocations() {
+        for (int i = 0; i < LOCATIONS.length; i++) {
+            insertToday(LOCATIONS[i], 20 + i);
+        }
+
+        int before = getQueryCount();
+        SparseArray<TodayWidgetIntentService.TodayConditions> conditions =
+                TodayWidgetIntentService.loadConditionsForWidgets(mContext, mWidgetIds);
+        assertEquals("Error: Rendering " + mWidgetIds.length + " widgets over " +
+                LOCATIONS.length + " locations should take exactly one query",
+                1, getQueryCount() - before);
+
+        assertEquals(mWidgetIds.length, conditions.size());
+        for (int i = 0; i < mWidgetIds.length; i++) {
+            String expectedHigh = Utility.formatTemperature(mContext, 20 + i % LOCATIONS.length);
+            assertEquals("Error: Widget " + mWidgetIds[i] + " shows the wrong location",
+                    expectedHigh, conditions.get(mWidgetIds[i]).formattedMaxTemperature);
+        }
+    }
+
+    public void testMissingLocationIsLeftOut() {
+        insertToday(LOCATIONS[0], 20);
+
+        int before = getQueryCount();
+        SparseArray<TodayWidgetIntentService.TodayConditions> conditions =
+                TodayWidgetIntentService.loadConditionsForWidgets(mContext, mWidgetIds);
+        assertEquals(1, getQueryCount() - before);
+        assertEquals(WIDGETS_PER_LOCATION, conditions.size());
+    }
+}
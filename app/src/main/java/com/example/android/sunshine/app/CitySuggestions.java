@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.example.android.sunshine.core.CityIndex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * City names to suggest while a location is typed, from a list bundled with the app.
+ *
+ * The list only has the capitals and other major cities, a couple of hundred names, so it
+ * speeds up typing the common cases rather than checking locations offline.  Anything not on
+ * it, like smaller towns and postal codes, is still typed in full and validated by the sync.
+ * See the README for what a full dataset would take.
+ *
+ * The list ships as a text asset (one "City,CC" per line, the form the forecast API takes).
+ * Assets are compressed in the APK, so the first time it's needed the list is built into a
+ * {@link CityIndex} in the files dir; after that, loading is mapping that file.  The index
+ * file is named after the app version, so an update with a new list builds a new one.
+ */
+public class CitySuggestions {
+    private static final String LOG_TAG = CitySuggestions.class.getSimpleName();
+
+    static final String CITIES_ASSET = "cities.txt";
+    private static final String INDEX_PREFIX = "cities-";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static volatile CityIndex sIndex;
+    private static boolean sLoading;
+
+    /**
+     * Starts loading the index in the background, if it isn't loaded already.
+     */
+    public static void prepare(Context context) {
+        synchronized (CitySuggestions.class) {
+            if (sIndex != null || sLoading) {
+                return;
+            }
+            sLoading = true;
+        }
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sIndex = load(appContext);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Error loading the city index", e);
+                } finally {
+                    synchronized (CitySuggestions.class) {
+                        sLoading = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Safe to call on the main thread: until {@link #prepare} has finished there are simply no
+     * suggestions.
+     *
+     * @return up to limit cities starting with the text
+     */
+    public static List<String> suggest(String text, int limit) {
+        CityIndex index = sIndex;
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        return index.search(text, limit);
+    }
+
+    /**
+     * Maps the index, building it from the asset first if there's no index for this version.
+     * Does disk I/O; don't call on the main thread.
+     */
+    static CityIndex load(Context context) throws IOException {
+        File file = getIndexFile(context);
+        if (!file.exists()) {
+            build(context, file);
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return CityIndex.load(map);
+        } catch (IllegalArgumentException e) {
+            file.delete();
+            throw new IOException("City index " + file + " is corrupt", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    static File getIndexFile(Context context) {
+        return new File(context.getFilesDir(),
+                INDEX_PREFIX + BuildConfig.VERSION_CODE + INDEX_SUFFIX);
+    }
+
+    private static void build(Context context, File file) throws IOException {
+        List<String> cities = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                context.getAssets().open(CITIES_ASSET), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                cities.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+
+        // Indexes left by older versions
+        File[] files = file.getParentFile().listFiles();
+        if (files != null) {
+            for (File old : files) {
+                String name = old.getName();
+                if (name.startsWith(INDEX_PREFIX) && name.endsWith(INDEX_SUFFIX)) {
+                    old.delete();
+                }
+            }
+        }
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            CityIndex.write(cities, out);
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Couldn't rename " + tmp + " to " + file);
+            }
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            tmp.delete();
+        }
+    }
+}
@@ -24,12 +24,22 @@ import android.preference.EditTextPreference;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.ListPopupWindow;
+
+import com.example.android.sunshine.app.sync.LocationPrefetcher;
+
+import java.util.List;
 
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
+    static final private int MAX_SUGGESTIONS = 5;
     private int mMinLength;
+    private ListPopupWindow mSuggestions;
 
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -47,9 +57,26 @@ public class LocationEditTextPreference extends EditTextPreference {
 
     @Override
     protected void showDialog(Bundle state) {
+        // Usually loaded long before the first letter is typed
+        CitySuggestions.prepare(getContext());
         super.showDialog(state);
 
-        EditText et = getEditText();
+        final EditText et = getEditText();
+        final ArrayAdapter<String> adapter = new ArrayAdapter<>(getContext(),
+                android.R.layout.simple_list_item_1);
+        mSuggestions = new ListPopupWindow(getContext());
+        mSuggestions.setAdapter(adapter);
+        mSuggestions.setAnchorView(et);
+        mSuggestions.setInputMethodMode(ListPopupWindow.INPUT_METHOD_NEEDED);
+        mSuggestions.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                String city = adapter.getItem(position);
+                et.setText(city);
+                et.setSelection(city.length());
+                mSuggestions.dismiss();
+            }
+        });
         et.addTextChangedListener(new TextWatcher() {
 
 
@@ -65,6 +92,10 @@ public class LocationEditTextPreference extends EditTextPreference {
 
             @Override
             public void afterTextChanged(Editable s) {
+                // Starts fetching the forecast once the typing settles
+                LocationPrefetcher.getInstance(getContext())
+                        .onLocationTyped(s.toString(), mMinLength);
+                showSuggestions(adapter, s.toString());
                 Dialog d = getDialog();
                 if (d instanceof AlertDialog) {
                     AlertDialog dialog = (AlertDialog) d;
@@ -81,4 +112,36 @@ public class LocationEditTextPreference extends EditTextPreference {
             }
         });
     }
+
+    private void showSuggestions(ArrayAdapter<String> adapter, String text) {
+        if (mSuggestions == null) {
+            return;
+        }
+        List<String> cities = CitySuggestions.suggest(text, MAX_SUGGESTIONS);
+        // Nothing left to suggest once the text is one of the cities
+        if (cities.isEmpty() || (cities.size() == 1 && cities.get(0).equals(text))) {
+            mSuggestions.dismiss();
+            return;
+        }
+        adapter.setNotifyOnChange(false);
+        adapter.clear();
+        adapter.addAll(cities);
+        adapter.notifyDataSetChanged();
+        mSuggestions.show();
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        if (mSuggestions != null) {
+            mSuggestions.dismiss();
+            mSuggestions = null;
+        }
+        boolean changed = positiveResult && !getEditText().getText().toString().equals(getText());
+        super.onDialogClosed(positiveResult);
+        if (!changed) {
+            // A new location commits its prefetch through SettingsActivity; anything else
+            // leaves nothing to use it for
+            LocationPrefetcher.getInstance(getContext()).discard();
+        }
+    }
 }
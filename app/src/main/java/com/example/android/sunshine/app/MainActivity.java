@@ -32,10 +32,13 @@ import android.view.View;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.gcm.RegistrationIntentService;
-import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.guard.MainThreadGuard;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback {
 
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -45,10 +48,18 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
 
     private boolean mTwoPane;
     private String mLocation;
+    private StartupOrchestrator mStartup;
 
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        // Before anything else, so the startup timings cover the whole of onCreate
+        mStartup = new StartupOrchestrator(this, new Runnable() {
+            @Override
+            public void run() {
+                registerGcmIfNeeded();
+            }
+        });
         super.onCreate(savedInstanceState);
         mLocation = Utility.getPreferredLocation(this);
         Uri contentUri = getIntent() != null ? getIntent().getData() : null;
@@ -90,8 +101,14 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
                     WeatherContract.WeatherEntry.getDateFromUri(contentUri));
         }
 
-        SunshineSyncAdapter.initializeSyncAdapter(this);
+        // The forecast loader is already reading the cached data.  Syncing and GCM registration
+        // wait until it's on screen, and only happen once per launch, not on every rotation.
+        if (savedInstanceState == null) {
+            mStartup.start();
+        }
+    }
 
+    private void registerGcmIfNeeded() {
         // If Google Play Services is up to date, we'll want to register GCM. If it is not, we'll
         // skip the registration and this device will not receive any downstream messages from
         // our fake server. Because weather alerts are not a core feature of the app, this should
@@ -151,6 +168,11 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         }
     }
 
+    @Override
+    public void onForecastShown() {
+        mStartup.onForecastShown();
+    }
+
     @Override
     public void onItemSelected(Uri contentUri, ForecastAdapter.ForecastAdapterViewHolder vh) {
         if (mTwoPane) {
@@ -198,4 +220,10 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         return true;
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        // adb shell dumpsys activity top
+        MainThreadGuard.dump(writer);
+    }
 }
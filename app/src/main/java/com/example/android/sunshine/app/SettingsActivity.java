@@ -25,7 +25,9 @@ import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 
+import com.example.android.sunshine.app.art.ArtPrefetchService;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.LocationPrefetcher;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -131,11 +133,17 @@ public class SettingsActivity extends PreferenceActivity
     // start our synchronization here
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // The snapshot's own listener may not have run yet, and what follows reads it
+        SettingsSnapshot.refresh(this);
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
             // first clear locationStatus
             Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            // then store the forecast fetched while it was typed, or sync as usual
+            String location = sharedPreferences.getString(key, "");
+            if (!LocationPrefetcher.getInstance(this).commit(location)) {
+                SunshineSyncAdapter.syncImmediately(this);
+            }
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
@@ -146,6 +154,8 @@ public class SettingsActivity extends PreferenceActivity
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // and start pulling the new pack into the image cache before it's needed
+            ArtPrefetchService.prefetchIfNeeded(this);
         }
     }
 
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+/**
+ * The settings that list rows, widgets and the sync read over and over, read once into final
+ * fields.  {@link #get} returns the current snapshot without touching SharedPreferences or
+ * resources; a new snapshot is built and swapped in whenever one of its preferences changes.
+ *
+ * The change listener runs on the main thread, so a write from another thread shows up a
+ * moment later.  Code that writes one of these settings and reads it straight back (the sync
+ * adapter with the location status) calls {@link #refresh} after the write.
+ */
+public final class SettingsSnapshot {
+
+    private static volatile SettingsSnapshot sCurrent;
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    public final String location;
+    public final boolean metric;
+    /** Format of the art URLs of the selected pack, taking the art name */
+    public final String artPack;
+    public final boolean localGraphics;
+    @SunshineSyncAdapter.LocationStatus
+    public final int locationStatus;
+
+    @SuppressWarnings("ResourceType")
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        location = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        String metricUnits = context.getString(R.string.pref_units_metric);
+        metric = prefs.getString(context.getString(R.string.pref_units_key), metricUnits)
+                .equals(metricUnits);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artPack = prefs.getString(context.getString(R.string.pref_art_pack_key), sunshineArtPack);
+        localGraphics = artPack.equals(sunshineArtPack);
+        locationStatus = prefs.getInt(context.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    /**
+     * @return the current settings.  Only the first call reads SharedPreferences.
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot current = sCurrent;
+        return current != null ? current : init(context);
+    }
+
+    private static synchronized SettingsSnapshot init(Context context) {
+        if (sCurrent == null) {
+            final Context appContext = context.getApplicationContext();
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+            final String[] keys = {
+                    appContext.getString(R.string.pref_location_key),
+                    appContext.getString(R.string.pref_units_key),
+                    appContext.getString(R.string.pref_art_pack_key),
+                    appContext.getString(R.string.pref_location_status_key)
+            };
+            sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    for (String snapshotKey : keys) {
+                        if (snapshotKey.equals(key)) {
+                            refresh(appContext);
+                            return;
+                        }
+                    }
+                }
+            };
+            prefs.registerOnSharedPreferenceChangeListener(sListener);
+            sCurrent = new SettingsSnapshot(appContext, prefs);
+        }
+        return sCurrent;
+    }
+
+    /**
+     * Rereads the settings now rather than waiting for the change listener.  Synchronized so
+     * the snapshot published last is always the one read last.
+     *
+     * @return the new snapshot
+     */
+    public static synchronized SettingsSnapshot refresh(Context context) {
+        get(context);
+        Context appContext = context.getApplicationContext();
+        SettingsSnapshot snapshot = new SettingsSnapshot(appContext,
+                PreferenceManager.getDefaultSharedPreferences(appContext));
+        sCurrent = snapshot;
+        return snapshot;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+/**
+ * Orders the work MainActivity does on launch so the cached forecast gets on screen first.
+ *
+ * The forecast loader starts reading the database as soon as the activity is created.  Anything
+ * else the launch used to do straight away (the expedited sync, the Play Services check and GCM
+ * registration) waits until the first frame has been drawn.  The sync is skipped altogether if
+ * the last one for this location is still fresh; the periodic sync keeps it current from there.
+ *
+ * The time to the first frame and to the first forecast on screen are logged under
+ * {@link #LOG_TAG} and the last launch's numbers kept for {@link #getStats}.
+ */
+class StartupOrchestrator {
+    static final String LOG_TAG = "SunshineStartup";
+
+    // The last launch, in the default shared preferences
+    static final String PREF_COLD_START = "startup_cold";
+    static final String PREF_FIRST_FRAME_MILLIS = "startup_first_frame_millis";
+    static final String PREF_FIRST_FORECAST_MILLIS = "startup_first_forecast_millis";
+    static final String PREF_SYNC_SKIPPED = "startup_sync_skipped";
+
+    // Only the first launch in a process counts as a cold start
+    private static boolean sProcessStarted;
+
+    private final Activity mActivity;
+    private final Runnable mDeferredUiWork;
+    private final long mStartTime;
+    private final boolean mColdStart;
+
+    private boolean mStarted;
+    private long mFirstFrameMillis = -1;
+    private boolean mForecastShown;
+    // Set once the background check has decided whether to sync
+    private volatile Boolean mSyncSkipped;
+
+    /**
+     * Call at the top of onCreate, so the clock starts as early as possible.
+     *
+     * @param deferredUiWork run on the UI thread once the first frame is up
+     */
+    StartupOrchestrator(Activity activity, Runnable deferredUiWork) {
+        mActivity = activity;
+        mDeferredUiWork = deferredUiWork;
+        mStartTime = SystemClock.uptimeMillis();
+        mColdStart = !sProcessStarted;
+        sProcessStarted = true;
+    }
+
+    /**
+     * Schedules the deferred work for after the first frame.  Call once the content view is set.
+     */
+    void start() {
+        mStarted = true;
+        final View decorView = mActivity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        // Posted from the pre-draw pass, this runs once the frame has been drawn
+                        decorView.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onFirstFrame();
+                            }
+                        });
+                        return true;
+                    }
+                });
+    }
+
+    private void onFirstFrame() {
+        mFirstFrameMillis = SystemClock.uptimeMillis() - mStartTime;
+        if (mActivity.isFinishing()) {
+            return;
+        }
+        final Context context = mActivity.getApplicationContext();
+        // Account lookup, preference reads and the sync request all touch disk or binder
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (SunshineSyncAdapter.isForecastFresh(context)) {
+                    // Still make sure the account and its periodic sync exist
+                    SunshineSyncAdapter.getSyncAccount(context);
+                    mSyncSkipped = true;
+                } else {
+                    SunshineSyncAdapter.initializeSyncAdapter(context);
+                    mSyncSkipped = false;
+                }
+            }
+        });
+        mDeferredUiWork.run();
+    }
+
+    /**
+     * Called when the forecast list first has rows on screen.
+     */
+    void onForecastShown() {
+        // A recreated activity (after a rotation, say) isn't a launch
+        if (!mStarted || mForecastShown) {
+            return;
+        }
+        mForecastShown = true;
+        long firstForecastMillis = SystemClock.uptimeMillis() - mStartTime;
+        if (mFirstFrameMillis < 0) {
+            // The rows made it into the very first frame
+            mFirstFrameMillis = firstForecastMillis;
+        }
+        Boolean syncSkipped = mSyncSkipped;
+        PreferenceManager.getDefaultSharedPreferences(mActivity).edit()
+                .putBoolean(PREF_COLD_START, mColdStart)
+                .putLong(PREF_FIRST_FRAME_MILLIS, mFirstFrameMillis)
+                .putLong(PREF_FIRST_FORECAST_MILLIS, firstForecastMillis)
+                .putBoolean(PREF_SYNC_SKIPPED, Boolean.TRUE.equals(syncSkipped))
+                .apply();
+        Log.i(LOG_TAG, (mColdStart ? "Cold" : "Warm") + " start: first frame " +
+                mFirstFrameMillis + "ms, first forecast " + firstForecastMillis + "ms, sync " +
+                (syncSkipped == null ? "pending" : syncSkipped ? "skipped" : "requested"));
+    }
+
+    /**
+     * @return a one line summary of the last launch, for logs and bug reports
+     */
+    static String getStats(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return "cold=" + prefs.getBoolean(PREF_COLD_START, false) +
+                " firstFrameMillis=" + prefs.getLong(PREF_FIRST_FRAME_MILLIS, -1) +
+                " firstForecastMillis=" + prefs.getLong(PREF_FIRST_FORECAST_MILLIS, -1) +
+                " syncSkipped=" + prefs.getBoolean(PREF_SYNC_SKIPPED, false);
+    }
+}
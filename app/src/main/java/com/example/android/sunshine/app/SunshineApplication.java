@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.Application;
+
+import com.example.android.sunshine.guard.MainThreadGuard;
+
+public class SunshineApplication extends Application {
+
+    // A message that runs longer than a frame shows up as jank
+    private static final long MAIN_THREAD_BUDGET_MILLIS = 16;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (BuildConfig.MAIN_THREAD_GUARD) {
+            // Report with: adb shell dumpsys activity top
+            MainThreadGuard.install(MAIN_THREAD_BUDGET_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.art;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.stream.StreamModelLoader;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.Utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Downloads every piece of art in the selected remote art pack into Glide's disk cache, so the
+ * first scroll through the forecast after switching packs doesn't wait on the network.  This
+ * caches the source images, so the loads that show the art ask Glide to cache sources too
+ * ({@link com.bumptech.glide.load.engine.DiskCacheStrategy#ALL}); with only the default
+ * result cache they would never read what was prefetched.
+ *
+ * Art packs only have one image per condition bucket, so this is a small, fixed set of
+ * downloads.  It only runs on an unmetered network; otherwise the pack stays pending and the
+ * next sync tries again.  The outcome of the last run is kept in the default shared
+ * preferences (see {@link #getStats}).
+ */
+public class ArtPrefetchService extends IntentService {
+    private static final String LOG_TAG = ArtPrefetchService.class.getSimpleName();
+
+    // One weather id from each WeatherConditions bucket
+    private static final int[] ART_BUCKET_WEATHER_IDS = {
+            200, // storm
+            300, // light_rain
+            500, // rain
+            600, // snow
+            701, // fog
+            800, // clear
+            801, // light_clouds
+            802  // clouds
+    };
+
+    // Prefetch results, in the default shared preferences
+    static final String PREF_PREFETCHED_PACK = "art_prefetch_pack";
+    static final String PREF_COMPLETED_AT = "art_prefetch_completed_at";
+    static final String PREF_BYTES = "art_prefetch_bytes";
+    static final String PREF_DOWNLOADED = "art_prefetch_downloaded";
+    static final String PREF_CACHE_HITS = "art_prefetch_cache_hits";
+
+    /*
+        Loads nothing itself, so a request made with it can only be answered from the disk
+        cache.  The source cache is keyed on the fetcher id, and for a url string Glide's own
+        http fetcher uses the url, so these requests find what the regular loads cached.
+     */
+    private static final StreamModelLoader<String> CACHE_ONLY_LOADER =
+            new StreamModelLoader<String>() {
+                @Override
+                public DataFetcher<InputStream> getResourceFetcher(final String model,
+                        int width, int height) {
+                    return new DataFetcher<InputStream>() {
+                        @Override
+                        public InputStream loadData(Priority priority) throws Exception {
+                            throw new IOException("Not in the disk cache: " + model);
+                        }
+
+                        @Override
+                        public void cleanup() {
+                        }
+
+                        @Override
+                        public String getId() {
+                            return model;
+                        }
+
+                        @Override
+                        public void cancel() {
+                        }
+                    };
+                }
+            };
+
+    public ArtPrefetchService() {
+        super("ArtPrefetchService");
+    }
+
+    /**
+     * Starts a prefetch if the selected art pack is remote and hasn't been prefetched yet.
+     */
+    public static void prefetchIfNeeded(Context context) {
+        if (getPackToPrefetch(context) != null) {
+            context.startService(new Intent(context, ArtPrefetchService.class));
+        }
+    }
+
+    /**
+     * Refreshes the settings first: this is called from preference change listeners, which
+     * can run before the one that keeps {@link SettingsSnapshot} up to date.
+     *
+     * @return the selected art pack if it's remote and not prefetched yet, otherwise null
+     */
+    static String getPackToPrefetch(Context context) {
+        SettingsSnapshot settings = SettingsSnapshot.refresh(context);
+        if (settings.localGraphics) {
+            return null;
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (settings.artPack.equals(prefs.getString(PREF_PREFETCHED_PACK, null))) {
+            return null;
+        }
+        return settings.artPack;
+    }
+
+    /**
+     * @return a one line summary of the last completed prefetch, for logs and bug reports
+     */
+    public static String getStats(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return "pack=" + prefs.getString(PREF_PREFETCHED_PACK, null) +
+                " completedAt=" + prefs.getLong(PREF_COMPLETED_AT, 0) +
+                " bytes=" + prefs.getLong(PREF_BYTES, 0) +
+                " downloaded=" + prefs.getInt(PREF_DOWNLOADED, 0) +
+                " cacheHits=" + prefs.getInt(PREF_CACHE_HITS, 0);
+    }
+
+    private static String getSelectedPack(Context context) {
+        return SettingsSnapshot.get(context).artPack;
+    }
+
+    private boolean isOnUnmeteredNetwork() {
+        ConnectivityManager cm =
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnected() && !cm.isActiveNetworkMetered();
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (Utility.usingLocalGraphics(this)) {
+            return;
+        }
+        if (!isOnUnmeteredNetwork()) {
+            Log.d(LOG_TAG, "Not on an unmetered network, leaving the art pack for later");
+            return;
+        }
+        if (prefetch(this, getSelectedPack(this))) {
+            Log.d(LOG_TAG, "Art pack prefetched: " + getStats(this) + ", Glide " +
+                    SunshineGlideModule.getStats());
+        }
+    }
+
+    /**
+     * Fetches each piece of art in the pack that isn't in Glide's disk cache yet, and records
+     * the results if they all made it.
+     *
+     * @return true if the whole pack is cached
+     */
+    static boolean prefetch(Context context, String pack) {
+        long bytes = 0;
+        int downloaded = 0;
+        int cacheHits = 0;
+        for (int weatherId : ART_BUCKET_WEATHER_IDS) {
+            String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+            File file = getCachedSource(context, artUrl);
+            if (file != null) {
+                cacheHits++;
+            } else {
+                FutureTarget<File> target = Glide.with(context)
+                        .load(artUrl)
+                        .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL);
+                try {
+                    file = target.get();
+                    downloaded++;
+                } catch (InterruptedException | ExecutionException e) {
+                    // Leave the pack pending so the next attempt fetches the rest
+                    Log.e(LOG_TAG, "Error prefetching art from " + artUrl, e);
+                    return false;
+                } finally {
+                    Glide.clear(target);
+                }
+            }
+            bytes += file.length();
+            if (!pack.equals(getSelectedPack(context))) {
+                // The pack changed underneath us; the change starts its own prefetch
+                return false;
+            }
+        }
+
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putString(PREF_PREFETCHED_PACK, pack)
+                .putLong(PREF_COMPLETED_AT, System.currentTimeMillis())
+                .putLong(PREF_BYTES, bytes)
+                .putInt(PREF_DOWNLOADED, downloaded)
+                .putInt(PREF_CACHE_HITS, cacheHits)
+                .apply();
+        return true;
+    }
+
+    /**
+     * @return the image Glide has on disk for the url, or null if it would have to fetch it
+     */
+    private static File getCachedSource(Context context, String artUrl) {
+        FutureTarget<File> target = Glide.with(context)
+                .using(CACHE_ONLY_LOADER)
+                .load(artUrl)
+                .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL);
+        try {
+            return target.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return null;
+        } finally {
+            Glide.clear(target);
+        }
+    }
+}
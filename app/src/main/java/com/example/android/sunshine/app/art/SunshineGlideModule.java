@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.art;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
+import com.bumptech.glide.module.GlideModule;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Glide configuration for Sunshine, registered in the manifest.
+ *
+ * Everything Glide loads here comes from a dozen pieces of condition art, shown at two or three
+ * sizes.  Glide's defaults size the caches for a photo gallery; these budgets are a share of
+ * the app's memory class instead, half as large on low-memory devices, and never more than
+ * Glide itself would pick.  Decodes prefer RGB_565, which halves the size of the art that has
+ * no transparency.  The memory cache and bitmap pool count their hits so {@link #getStats()}
+ * can report how well they are doing.
+ */
+public class SunshineGlideModule implements GlideModule {
+
+    // Share of the memory class given to each of the memory cache and the bitmap pool
+    private static final int MEMORY_CLASS_DIVISOR = 16;
+    private static final int LOW_MEMORY_CLASS_DIVISOR = 32;
+    // Devices with a memory class at or under this (MB) get the smaller share
+    private static final int LOW_MEMORY_CLASS = 64;
+
+    private static final String DISK_CACHE_NAME = "glide_art";
+    // Enough for every remote art pack at full size, several times over
+    private static final int DISK_CACHE_BYTES = 16 * 1024 * 1024;
+
+    private static final AtomicInteger sMemoryCacheHits = new AtomicInteger();
+    private static final AtomicInteger sMemoryCacheMisses = new AtomicInteger();
+    private static final AtomicInteger sPoolHits = new AtomicInteger();
+    private static final AtomicInteger sPoolMisses = new AtomicInteger();
+
+    @Override
+    public void applyOptions(Context context, GlideBuilder builder) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClass = activityManager.getMemoryClass();
+        boolean lowMemory = memoryClass <= LOW_MEMORY_CLASS
+                || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                        && activityManager.isLowRamDevice());
+        int budget = memoryClass * 1024 * 1024 /
+                (lowMemory ? LOW_MEMORY_CLASS_DIVISOR : MEMORY_CLASS_DIVISOR);
+
+        MemorySizeCalculator calculator = new MemorySizeCalculator(context);
+        builder.setMemoryCache(new CountingResourceCache(
+                Math.min(budget, calculator.getMemoryCacheSize())));
+        builder.setBitmapPool(new CountingBitmapPool(
+                Math.min(budget, calculator.getBitmapPoolSize())));
+        builder.setDiskCache(
+                new InternalCacheDiskCacheFactory(context, DISK_CACHE_NAME, DISK_CACHE_BYTES));
+        builder.setDecodeFormat(DecodeFormat.PREFER_RGB_565);
+    }
+
+    @Override
+    public void registerComponents(Context context, Glide glide) {
+        // The default loaders are all we need
+    }
+
+    /**
+     * @return a one line summary of the memory cache and bitmap pool hit rates since startup
+     */
+    public static String getStats() {
+        return "memoryCache hits=" + sMemoryCacheHits.get() +
+                " misses=" + sMemoryCacheMisses.get() +
+                " bitmapPool reused=" + sPoolHits.get() +
+                " allocated=" + sPoolMisses.get();
+    }
+
+    private static class CountingResourceCache extends LruResourceCache {
+        CountingResourceCache(int size) {
+            super(size);
+        }
+
+        // The engine takes resources out of the memory cache with remove() when it loads them
+        @Override
+        public Resource<?> remove(Key key) {
+            Resource<?> resource = super.remove(key);
+            (resource != null ? sMemoryCacheHits : sMemoryCacheMisses).incrementAndGet();
+            return resource;
+        }
+    }
+
+    private static class CountingBitmapPool extends LruBitmapPool {
+        CountingBitmapPool(int maxSize) {
+            super(maxSize);
+        }
+
+        // get() goes through getDirty(), so this sees every request exactly once
+        @Override
+        public synchronized Bitmap getDirty(int width, int height, Bitmap.Config config) {
+            return count(super.getDirty(width, height, config));
+        }
+
+        private static Bitmap count(Bitmap bitmap) {
+            (bitmap != null ? sPoolHits : sPoolMisses).incrementAndGet();
+            return bitmap;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.art;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.Utility;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * App-wide cache of decoded weather art, shared by the notification, the widgets and the wear
+ * data items.
+ *
+ * There are only a dozen or so condition buckets, so the same few images get decoded over and
+ * over by each consumer.  Bitmaps are keyed by what they show (icon or art, condition bucket,
+ * art pack) and the size they were decoded at, and kept in a memory LRU with a byte budget.
+ * Behind that is a disk tier of PNGs in the cache directory, so the remote art packs aren't
+ * fetched and decoded again after the process dies.
+ *
+ * The loads block, so call this from a background thread (the sync adapter, a widget
+ * factory, an IntentService).
+ */
+public class WeatherArtCache {
+    private static final String LOG_TAG = WeatherArtCache.class.getSimpleName();
+
+    /** Pass as width and height to keep the image at its natural size. */
+    public static final int SIZE_ORIGINAL = 0;
+
+    private static final String KIND_ICON = "icon";
+    private static final String KIND_ART = "art";
+    private static final String LOCAL_PACK = "local";
+
+    private static final String DISK_CACHE_DIR = "weather_art";
+    private static final long DISK_CACHE_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_MEMORY_CACHE_BYTES = 4 * 1024 * 1024;
+
+    private static WeatherArtCache sInstance;
+
+    private final Context mContext;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDiskCacheDir;
+    private final Object mDiskLock = new Object();
+
+    public static synchronized WeatherArtCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherArtCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WeatherArtCache(Context context) {
+        mContext = context;
+        int budget = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, MAX_MEMORY_CACHE_BYTES);
+        mMemoryCache = new LruCache<String, Bitmap>(budget) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+    }
+
+    /**
+     * @return the small condition icon for a weather id, decoded to fit the given size, or null
+     * if the id isn't a condition we have an icon for.  Icons are always the bundled drawables.
+     */
+    public Bitmap getIcon(int weatherId, int width, int height) {
+        int resourceId = Utility.getIconResourceForWeatherCondition(weatherId);
+        if (resourceId == -1) {
+            return null;
+        }
+        String key = buildKey(KIND_ICON, resourceId, LOCAL_PACK, width, height);
+        Bitmap bitmap = getCached(key);
+        if (bitmap == null) {
+            bitmap = decodeResource(resourceId, width, height);
+            putCached(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return the condition icon as PNG bytes at its natural size, ready to go into a wear
+     * {@link com.google.android.gms.wearable.Asset}, or null if the id isn't a condition we
+     * have an icon for.
+     */
+    public byte[] getIconPng(int weatherId) {
+        int resourceId = Utility.getIconResourceForWeatherCondition(weatherId);
+        if (resourceId == -1) {
+            return null;
+        }
+        String key = buildKey(KIND_ICON, resourceId, LOCAL_PACK, SIZE_ORIGINAL, SIZE_ORIGINAL);
+        byte[] png = readDisk(key);
+        if (png == null) {
+            png = encodePng(getIcon(weatherId, SIZE_ORIGINAL, SIZE_ORIGINAL));
+            writeDisk(key, png);
+        }
+        return png;
+    }
+
+    /**
+     * @return the art for a weather id from the art pack selected in settings, decoded to fit
+     * the given size, or null if the id isn't a condition we have art for.  Falls back to the
+     * bundled art if the pack can't be loaded; the fallback isn't cached so the pack is tried
+     * again next time.
+     */
+    public Bitmap getArt(int weatherId, int width, int height) {
+        int resourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        if (resourceId == -1) {
+            // Unknown conditions (OWM's 9xx, say) have neither bundled nor remote art
+            return null;
+        }
+        if (Utility.usingLocalGraphics(mContext)) {
+            String key = buildKey(KIND_ART, resourceId, LOCAL_PACK, width, height);
+            Bitmap bitmap = getCached(key);
+            if (bitmap == null) {
+                bitmap = decodeResource(resourceId, width, height);
+                putCached(key, bitmap);
+            }
+            return bitmap;
+        }
+
+        String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+        if (artUrl == null) {
+            return decodeResource(resourceId, width, height);
+        }
+        String key = buildKey(KIND_ART, resourceId,
+                Integer.toHexString(artUrl.hashCode()), width, height);
+        Bitmap bitmap = getCached(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        bitmap = loadUrl(artUrl, width, height);
+        if (bitmap == null) {
+            return decodeResource(resourceId, width, height);
+        }
+        putCached(key, bitmap);
+        return bitmap;
+    }
+
+    private String buildKey(String kind, int resourceId, String pack, int width, int height) {
+        // Resource ids can change between builds, the entry names don't
+        return kind + '_' + mContext.getResources().getResourceEntryName(resourceId) + '_' +
+                pack + '_' + width + 'x' + height;
+    }
+
+    private Bitmap getCached(String key) {
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        byte[] png = readDisk(key);
+        if (png != null) {
+            bitmap = BitmapFactory.decodeByteArray(png, 0, png.length);
+            if (bitmap != null) {
+                mMemoryCache.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    private void putCached(String key, Bitmap bitmap) {
+        if (bitmap == null) return;
+        mMemoryCache.put(key, bitmap);
+        writeDisk(key, encodePng(bitmap));
+    }
+
+    Bitmap loadUrl(String url, int width, int height) {
+        FutureTarget<Bitmap> target = Glide.with(mContext)
+                .load(url)
+                .asBitmap()
+                // Reads the source images ArtPrefetchService downloads
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                .fitCenter()
+                .into(width == SIZE_ORIGINAL ? Target.SIZE_ORIGINAL : width,
+                        height == SIZE_ORIGINAL ? Target.SIZE_ORIGINAL : height);
+        try {
+            // Glide recycles its bitmaps into its pool once the target is cleared, so keep
+            // a copy of our own
+            Bitmap bitmap = target.get();
+            return bitmap.copy(bitmap.getConfig(), false);
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving weather art from " + url, e);
+            return null;
+        } finally {
+            Glide.clear(target);
+        }
+    }
+
+    private Bitmap decodeResource(int resourceId, int width, int height) {
+        if (width == SIZE_ORIGINAL || height == SIZE_ORIGINAL) {
+            return BitmapFactory.decodeResource(mContext.getResources(), resourceId);
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(mContext.getResources(), resourceId, options);
+
+        // Subsample by powers of two while we stay at least as big as the target, then scale
+        // the rest of the way
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width &&
+                options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap decoded = BitmapFactory.decodeResource(mContext.getResources(), resourceId, options);
+        if (decoded == null) {
+            return null;
+        }
+
+        float scale = Math.min((float) width / decoded.getWidth(),
+                (float) height / decoded.getHeight());
+        if (scale >= 1f) {
+            return decoded;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded,
+                Math.max(1, Math.round(decoded.getWidth() * scale)),
+                Math.max(1, Math.round(decoded.getHeight() * scale)), true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    private static byte[] encodePng(Bitmap bitmap) {
+        if (bitmap == null) return null;
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
+        return byteStream.toByteArray();
+    }
+
+    private byte[] readDisk(String key) {
+        synchronized (mDiskLock) {
+            File file = new File(mDiskCacheDir, key);
+            if (!file.exists()) {
+                return null;
+            }
+            RandomAccessFile in = null;
+            try {
+                in = new RandomAccessFile(file, "r");
+                byte[] bytes = new byte[(int) in.length()];
+                in.readFully(bytes);
+                // Mark it recently used for the disk trim
+                file.setLastModified(System.currentTimeMillis());
+                return bytes;
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Error reading cached art " + key, e);
+                return null;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeDisk(String key, byte[] bytes) {
+        if (bytes == null) return;
+        synchronized (mDiskLock) {
+            if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+                return;
+            }
+            File tmp = new File(mDiskCacheDir, key + ".tmp");
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(tmp);
+                out.write(bytes);
+                out.close();
+                out = null;
+                if (!tmp.renameTo(new File(mDiskCacheDir, key))) {
+                    tmp.delete();
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Error caching art " + key, e);
+                tmp.delete();
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+            trimDisk();
+        }
+    }
+
+    // Drops the least recently used files until the directory is back under its budget
+    private void trimDisk() {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) return;
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= DISK_CACHE_BYTES) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (total <= DISK_CACHE_BYTES) break;
+            total -= file.length();
+            file.delete();
+        }
+    }
+}
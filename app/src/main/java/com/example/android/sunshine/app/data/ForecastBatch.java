@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Arrays;
+
+/**
+ * The days of one location's forecast packed into parallel primitive arrays, for
+ * {@link WeatherContract#METHOD_INGEST_FORECAST}.  Nothing is boxed per day, and the provider
+ * binds the arrays straight into a compiled insert statement.
+ *
+ * Dates must already be normalized with {@link WeatherContract#normalizeDate(long)}; the
+ * provider stores them as they are.
+ */
+public final class ForecastBatch implements Parcelable {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int mSize;
+    long[] dates;
+    int[] weatherIds;
+    String[] shortDescs;
+    double[] minTemps;
+    double[] maxTemps;
+    double[] humidities;
+    double[] pressures;
+    double[] windSpeeds;
+    double[] degrees;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ForecastBatch(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    private void allocate(int capacity) {
+        dates = new long[capacity];
+        weatherIds = new int[capacity];
+        shortDescs = new String[capacity];
+        minTemps = new double[capacity];
+        maxTemps = new double[capacity];
+        humidities = new double[capacity];
+        pressures = new double[capacity];
+        windSpeeds = new double[capacity];
+        degrees = new double[capacity];
+    }
+
+    private void grow() {
+        int capacity = dates.length * 2;
+        dates = Arrays.copyOf(dates, capacity);
+        weatherIds = Arrays.copyOf(weatherIds, capacity);
+        shortDescs = Arrays.copyOf(shortDescs, capacity);
+        minTemps = Arrays.copyOf(minTemps, capacity);
+        maxTemps = Arrays.copyOf(maxTemps, capacity);
+        humidities = Arrays.copyOf(humidities, capacity);
+        pressures = Arrays.copyOf(pressures, capacity);
+        windSpeeds = Arrays.copyOf(windSpeeds, capacity);
+        degrees = Arrays.copyOf(degrees, capacity);
+    }
+
+    /**
+     * Appends one day of the forecast.
+     *
+     * @param date the normalized UTC day, as returned by {@link WeatherContract#normalizeDate}
+     */
+    public void add(long date, int weatherId, String shortDesc, double minTemp, double maxTemp,
+                    double humidity, double pressure, double windSpeed, double windDegrees) {
+        if (mSize == dates.length) {
+            grow();
+        }
+        dates[mSize] = date;
+        weatherIds[mSize] = weatherId;
+        shortDescs[mSize] = shortDesc;
+        minTemps[mSize] = minTemp;
+        maxTemps[mSize] = maxTemp;
+        humidities[mSize] = humidity;
+        pressures[mSize] = pressure;
+        windSpeeds[mSize] = windSpeed;
+        degrees[mSize] = windDegrees;
+        mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mSize);
+        for (int i = 0; i < mSize; i++) {
+            dest.writeLong(dates[i]);
+            dest.writeInt(weatherIds[i]);
+            dest.writeString(shortDescs[i]);
+            dest.writeDouble(minTemps[i]);
+            dest.writeDouble(maxTemps[i]);
+            dest.writeDouble(humidities[i]);
+            dest.writeDouble(pressures[i]);
+            dest.writeDouble(windSpeeds[i]);
+            dest.writeDouble(degrees[i]);
+        }
+    }
+
+    public static final Creator<ForecastBatch> CREATOR = new Creator<ForecastBatch>() {
+        @Override
+        public ForecastBatch createFromParcel(Parcel in) {
+            int size = in.readInt();
+            ForecastBatch batch = new ForecastBatch(size);
+            for (int i = 0; i < size; i++) {
+                batch.add(in.readLong(), in.readInt(), in.readString(), in.readDouble(),
+                        in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                        in.readDouble());
+            }
+            return batch;
+        }
+
+        @Override
+        public ForecastBatch[] newArray(int size) {
+            return new ForecastBatch[size];
+        }
+    };
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * A read-only copy of one location's latest forecast, written to a small binary file at the end
+ * of every successful sync.
+ *
+ * The widgets and the Muzei source read it through a memory map when their process has just
+ * started, so they can draw without waiting for the provider to open the database.  If the file
+ * is missing, for another location, from another layout version or fails its checksum,
+ * {@link #read} returns null and the caller falls back to the provider.  Only the sync writes
+ * snapshots, so every other write through {@link WeatherProvider}, and a new or upgraded
+ * database, deletes the ones it may have made stale.
+ *
+ * Layout, big endian:
+ * <pre>
+ *   header:  int magic, int version, int payload length, int CRC32 of the payload
+ *   payload: 64 byte location setting, long written at, int day count, then one record per day:
+ *            long date, int weather id, double min, max, humidity, pressure, wind speed,
+ *            wind degrees, 32 byte short description
+ * </pre>
+ * Strings are a length byte followed by UTF-8, padded out to the field size.
+ */
+public final class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    private static final String SNAPSHOT_DIR = "forecast_snapshots";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    private static final int MAGIC = 0x53554e53; // "SUNS"
+    // Bump when the layout changes; older files are then ignored until the next sync
+    static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int LOCATION_BYTES = 64;
+    private static final int SHORT_DESC_BYTES = 32;
+    private static final int DAYS_OFFSET = LOCATION_BYTES + 8 + 4;
+    private static final int DAY_BYTES = 8 + 4 + 6 * 8 + SHORT_DESC_BYTES;
+
+    // Offsets within a day record
+    private static final int DATE = 0;
+    private static final int WEATHER_ID = 8;
+    private static final int MIN_TEMP = 12;
+    private static final int MAX_TEMP = 20;
+    private static final int HUMIDITY = 28;
+    private static final int PRESSURE = 36;
+    private static final int WIND_SPEED = 44;
+    private static final int DEGREES = 52;
+    private static final int SHORT_DESC = 60;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // The payload, positioned at 0
+    private final ByteBuffer mPayload;
+    private final int mSize;
+
+    private ForecastSnapshot(ByteBuffer payload) {
+        mPayload = payload;
+        mSize = payload.getInt(LOCATION_BYTES + 8);
+    }
+
+    /**
+     * Writes the snapshot for a location, replacing the previous one in a single rename.  Call
+     * it after the forecast has been stored, off the UI thread.
+     */
+    public static void write(Context context, String locationSetting, ForecastBatch forecast) {
+        int size = forecast.size();
+        ByteBuffer payload = ByteBuffer.allocate(DAYS_OFFSET + size * DAY_BYTES);
+        putString(payload, 0, LOCATION_BYTES, locationSetting);
+        payload.putLong(LOCATION_BYTES, System.currentTimeMillis());
+        payload.putInt(LOCATION_BYTES + 8, size);
+        for (int i = 0; i < size; i++) {
+            int day = DAYS_OFFSET + i * DAY_BYTES;
+            payload.putLong(day + DATE, forecast.dates[i]);
+            payload.putInt(day + WEATHER_ID, forecast.weatherIds[i]);
+            payload.putDouble(day + MIN_TEMP, forecast.minTemps[i]);
+            payload.putDouble(day + MAX_TEMP, forecast.maxTemps[i]);
+            payload.putDouble(day + HUMIDITY, forecast.humidities[i]);
+            payload.putDouble(day + PRESSURE, forecast.pressures[i]);
+            payload.putDouble(day + WIND_SPEED, forecast.windSpeeds[i]);
+            payload.putDouble(day + DEGREES, forecast.degrees[i]);
+            putString(payload, day + SHORT_DESC, SHORT_DESC_BYTES, forecast.shortDescs[i]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(payload.capacity())
+                .putInt((int) crc.getValue());
+
+        File file = getFile(context, locationSetting);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        File tmp = new File(dir, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(header.array());
+            out.write(payload.array());
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error writing forecast snapshot for " + locationSetting, e);
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the snapshot for a location.
+     *
+     * @return the snapshot, or null if there isn't a valid one and the caller should query the
+     * provider instead
+     */
+    public static ForecastSnapshot read(Context context, String locationSetting) {
+        File file = getFile(context, locationSetting);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            FileChannel channel = in.getChannel();
+            long length = channel.size();
+            if (length < HEADER_BYTES + DAYS_OFFSET) {
+                return null;
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            map.order(ByteOrder.BIG_ENDIAN);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                return null;
+            }
+            int payloadLength = map.getInt(8);
+            if (payloadLength != length - HEADER_BYTES) {
+                return null;
+            }
+            map.position(HEADER_BYTES);
+            ByteBuffer payload = map.slice();
+            if (checksum(payload) != map.getInt(12)) {
+                Log.w(LOG_TAG, "Forecast snapshot for " + locationSetting + " is corrupt");
+                return null;
+            }
+            ForecastSnapshot snapshot = new ForecastSnapshot(payload);
+            if (!locationSetting.equals(getString(payload, 0))
+                    || payloadLength != DAYS_OFFSET + snapshot.mSize * DAY_BYTES) {
+                return null;
+            }
+            return snapshot;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error reading forecast snapshot for " + locationSetting, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the snapshot for a location, so readers go to the provider.
+     */
+    public static void delete(Context context, String locationSetting) {
+        getFile(context, locationSetting).delete();
+    }
+
+    /**
+     * Removes every location's snapshot, for writes that could touch any of them.
+     */
+    public static void deleteAll(Context context) {
+        File[] files = getDir(context).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            // A .tmp is a snapshot still being written; let its rename land
+            if (file.getName().endsWith(SNAPSHOT_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    static File getFile(Context context, String locationSetting) {
+        // Location settings are free text; the real one is checked against the file's copy
+        return new File(getDir(context),
+                Integer.toHexString(locationSetting.hashCode()) + SNAPSHOT_SUFFIX);
+    }
+
+    private static File getDir(Context context) {
+        return new File(context.getFilesDir(), SNAPSHOT_DIR);
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[4096];
+        ByteBuffer in = payload.duplicate();
+        while (in.hasRemaining()) {
+            int count = Math.min(chunk.length, in.remaining());
+            in.get(chunk, 0, count);
+            crc.update(chunk, 0, count);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static void putString(ByteBuffer buffer, int offset, int fieldBytes, String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(UTF_8);
+        int length = Math.min(bytes.length, fieldBytes - 1);
+        // Don't cut a multi-byte character in half
+        while (length > 0 && length < bytes.length && (bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        buffer.put(offset, (byte) length);
+        for (int i = 0; i < length; i++) {
+            buffer.put(offset + 1 + i, bytes[i]);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer, int offset) {
+        int length = buffer.get(offset) & 0xff;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + 1 + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * @return when the sync that wrote this snapshot finished, in milliseconds
+     */
+    public long getWrittenAt() {
+        return mPayload.getLong(LOCATION_BYTES);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the index of the first day on or after the given normalized date, or -1 if the
+     * snapshot ends before it
+     */
+    public int indexOfDate(long normalizedDate) {
+        for (int i = 0; i < mSize; i++) {
+            if (getDate(i) >= normalizedDate) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public long getDate(int day) {
+        return mPayload.getLong(DAYS_OFFSET + day * DAY_BYTES + DATE);
+    }
+
+    public int getWeatherId(int day) {
+        return mPayload.getInt(DAYS_OFFSET + day * DAY_BYTES + WEATHER_ID);
+    }
+
+    public double getMinTemp(int day) {
+        return mPayload.getDouble(DAYS_OFFSET + day * DAY_BYTES + MIN_TEMP);
+    }
+
+    public double getMaxTemp(int day) {
+        return mPayload.getDouble(DAYS_OFFSET + day * DAY_BYTES + MAX_TEMP);
+    }
+
+    public double getHumidity(int day) {
+        return mPayload.getDouble(DAYS_OFFSET + day * DAY_BYTES + HUMIDITY);
+    }
+
+    public double getPressure(int day) {
+        return mPayload.getDouble(DAYS_OFFSET + day * DAY_BYTES + PRESSURE);
+    }
+
+    public double getWindSpeed(int day) {
+        return mPayload.getDouble(DAYS_OFFSET + day * DAY_BYTES + WIND_SPEED);
+    }
+
+    public double getDegrees(int day) {
+        return mPayload.getDouble(DAYS_OFFSET + day * DAY_BYTES + DEGREES);
+    }
+
+    public String getShortDesc(int day) {
+        return getString(mPayload, DAYS_OFFSET + day * DAY_BYTES + SHORT_DESC);
+    }
+}
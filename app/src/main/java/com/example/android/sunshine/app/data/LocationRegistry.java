@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory map from location setting to location row, so the provider doesn't query the
+ * location table on every ingest and every weather-by-location query.
+ *
+ * A location's row id never changes once it's inserted, so an entry stays good until
+ * something other than the ingest writes to the location table; the provider calls
+ * {@link #invalidate} when that happens, and when an ingest transaction rolls back.  Misses
+ * aren't remembered, since a location can be inserted directly through the provider.
+ */
+class LocationRegistry {
+
+    static final long NOT_FOUND = -1;
+
+    // More locations than anyone follows, but not unbounded if a test inserts thousands
+    private static final int MAX_ENTRIES = 256;
+
+    private static final class Location {
+        final long id;
+        final String cityName;
+        final double lat;
+        final double lon;
+
+        Location(long id, String cityName, double lat, double lon) {
+            this.id = id;
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        boolean matches(String cityName, double lat, double lon) {
+            return TextUtils.equals(this.cityName, cityName)
+                    && Double.compare(this.lat, lat) == 0
+                    && Double.compare(this.lon, lon) == 0;
+        }
+    }
+
+    //location.location_setting = ?
+    private static final String sLocationSettingSelection =
+            LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    //location._id = ?
+    private static final String sLocationIdSelection = LocationEntry._ID + " = ?";
+
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private final Map<String, Location> mLocations = new HashMap<>();
+    // Bumped by invalidate(), so a row read before it can't be put back after it
+    private long mGeneration;
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicInteger mUpdates = new AtomicInteger();
+
+    /**
+     * @return the row id of the location setting, or {@link #NOT_FOUND} if there's no such row
+     */
+    long lookup(SQLiteDatabase db, String locationSetting) {
+        Location location = get(locationSetting);
+        if (location == null) {
+            location = load(db, locationSetting);
+        }
+        return location != null ? location.id : NOT_FOUND;
+    }
+
+    /**
+     * Finds the location row for a location setting, inserting it if it isn't there yet.  The
+     * stored city name and coordinates are only rewritten when they differ from the ones
+     * given.  Must be called inside a transaction; if the transaction fails, call
+     * {@link #invalidate}.
+     */
+    long resolve(SQLiteDatabase db, String locationSetting, String cityName,
+                 double lat, double lon) {
+        Location location = get(locationSetting);
+        if (location == null) {
+            location = load(db, locationSetting);
+        }
+        if (location == null) {
+            ContentValues values = buildValues(cityName, lat, lon);
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            long _id = db.insert(LocationEntry.TABLE_NAME, null, values);
+            if (_id == -1) {
+                throw new android.database.SQLException(
+                        "Failed to insert location " + locationSetting);
+            }
+            put(locationSetting, new Location(_id, cityName, lat, lon), getGeneration());
+            return _id;
+        }
+        if (!location.matches(cityName, lat, lon)) {
+            db.update(LocationEntry.TABLE_NAME, buildValues(cityName, lat, lon),
+                    sLocationIdSelection, new String[]{Long.toString(location.id)});
+            mUpdates.incrementAndGet();
+            put(locationSetting, new Location(location.id, cityName, lat, lon), getGeneration());
+        }
+        return location.id;
+    }
+
+    /**
+     * Forgets every location; the next lookup of each goes back to the database.
+     */
+    synchronized void invalidate() {
+        mLocations.clear();
+        mGeneration++;
+    }
+
+    int getHitCount() {
+        return mHits.get();
+    }
+
+    int getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return how many times a location's city name or coordinates were rewritten
+     */
+    int getUpdateCount() {
+        return mUpdates.get();
+    }
+
+    private synchronized Location get(String locationSetting) {
+        Location location = mLocations.get(locationSetting);
+        if (location != null) {
+            mHits.incrementAndGet();
+        }
+        return location;
+    }
+
+    private synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    private synchronized void put(String locationSetting, Location location, long generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        if (mLocations.size() >= MAX_ENTRIES && !mLocations.containsKey(locationSetting)) {
+            mLocations.clear();
+        }
+        mLocations.put(locationSetting, location);
+    }
+
+    private Location load(SQLiteDatabase db, String locationSetting) {
+        mMisses.incrementAndGet();
+        long generation = getGeneration();
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                LOCATION_COLUMNS,
+                sLocationSettingSelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            Location location = new Location(cursor.getLong(0), cursor.getString(1),
+                    cursor.getDouble(2), cursor.getDouble(3));
+            put(locationSetting, location, generation);
+            return location;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues buildValues(String cityName, double lat, double lon) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_CITY_NAME, cityName);
+        values.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        return values;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.LruCache;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of the weather-by-location join results.
+ *
+ * After a sync the widgets, Muzei, the notification and the forecast list all ask for the same
+ * rows within a few seconds of each other, each with its own projection.  Results are cached
+ * with every column of the join (the canonical projection) so any of those projections can be
+ * answered from the same entry.  Entries are stamped with the write generation they were read
+ * at; any write to the provider bumps the generation, which makes every older entry a miss.
+ */
+class QueryCache {
+
+    private static final int MAX_ENTRIES = 16;
+
+    // Results bigger than this aren't worth holding on to; a forecast is 14 rows.
+    private static final int MAX_ROWS = 64;
+
+    static final String WEATHER_ID_COLUMN = WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID;
+    static final String LOCATION_ID_COLUMN = LocationEntry.TABLE_NAME + "." + LocationEntry._ID;
+
+    // Every column of weather INNER JOIN location, qualified where the name is ambiguous
+    static final String[] CANONICAL_PROJECTION = {
+            WEATHER_ID_COLUMN,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            LOCATION_ID_COLUMN,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private final LruCache<String, Entry> mEntries = new LruCache<>(MAX_ENTRIES);
+    private final AtomicLong mGeneration = new AtomicLong();
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+
+    private static class Entry {
+        final long generation;
+        final Object[][] rows;
+
+        Entry(long generation, Object[][] rows) {
+            this.generation = generation;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * @return the current write generation.  Read this before querying the database and pass
+     * it to {@link #put} so a write that races with the query can't leave a stale entry behind.
+     */
+    long getGeneration() {
+        return mGeneration.get();
+    }
+
+    /**
+     * Called on every write to the provider.
+     */
+    void invalidate() {
+        mGeneration.incrementAndGet();
+        mEntries.evictAll();
+    }
+
+    int getHitCount() {
+        return mHits.get();
+    }
+
+    int getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * Builds the cache key for a query, or returns null if the query can't be served from the
+     * cache because the projection isn't a subset of {@link #CANONICAL_PROJECTION}.
+     */
+    static String buildKey(Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder) {
+        if (projection == null) return null;
+        for (String column : projection) {
+            if (indexOf(column) == -1) return null;
+        }
+        // The Uri builders in WeatherContract already normalize the dates they append, so the
+        // path and the start date are all that identify the rows.
+        return uri.getPath() + '|' + WeatherEntry.getStartDateFromUri(uri) + '|' +
+                selection + '|' + Arrays.toString(selectionArgs) + '|' + sortOrder;
+    }
+
+    /**
+     * @return a cursor over the cached rows in the requested projection, or null on a miss.
+     */
+    Cursor get(String key, String[] projection) {
+        Entry entry = mEntries.get(key);
+        if (entry == null || entry.generation != mGeneration.get()) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+        mHits.incrementAndGet();
+        return project(entry.rows, projection);
+    }
+
+    /**
+     * Copies a cursor over {@link #CANONICAL_PROJECTION} into memory, stores it if it is still
+     * current, and returns a cursor over the requested projection.  The source cursor is closed.
+     */
+    Cursor put(String key, long generation, Cursor cursor, String[] projection) {
+        Object[][] rows = new Object[cursor.getCount()][];
+        int columnCount = cursor.getColumnCount();
+        try {
+            for (int row = 0; cursor.moveToNext(); row++) {
+                Object[] values = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            values[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            values[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            values[i] = cursor.getString(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            values[i] = cursor.getBlob(i);
+                            break;
+                        default:
+                            values[i] = null;
+                    }
+                }
+                rows[row] = values;
+            }
+        } finally {
+            cursor.close();
+        }
+        if (rows.length <= MAX_ROWS && generation == mGeneration.get()) {
+            mEntries.put(key, new Entry(generation, rows));
+        }
+        return project(rows, projection);
+    }
+
+    private static Cursor project(Object[][] rows, String[] projection) {
+        int[] indices = new int[projection.length];
+        String[] columnNames = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            indices[i] = indexOf(projection[i]);
+            // SQLite names a "table.column" result column after the bare column
+            String column = projection[i];
+            columnNames[i] = column.substring(column.lastIndexOf('.') + 1);
+        }
+        MatrixCursor cursor = new MatrixCursor(columnNames, rows.length);
+        for (Object[] row : rows) {
+            Object[] values = new Object[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                values[i] = row[indices[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < CANONICAL_PROJECTION.length; i++) {
+            if (CANONICAL_PROJECTION[i].equals(column)) return i;
+        }
+        return -1;
+    }
+}
@@ -19,7 +19,10 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import com.example.android.sunshine.core.JulianDay;
+
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +46,46 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_CURRENT_CONDITIONS = "current";
+    public static final String PATH_SYNC_STATS = "sync_stats";
+
+    // Provider methods available through ContentResolver.call(BASE_CONTENT_URI, ...)
+    // Returns a Bundle with the hit and miss counts of the provider's query result cache, and
+    // the total number of queries.
+    public static final String METHOD_GET_QUERY_CACHE_STATS = "get_query_cache_stats";
+    public static final String KEY_QUERY_CACHE_HITS = "query_cache_hits";
+    public static final String KEY_QUERY_CACHE_MISSES = "query_cache_misses";
+    // Number of query() calls the provider has answered, cached or not
+    public static final String KEY_QUERY_COUNT = "query_count";
+    // Location setting lookups answered from memory and from the location table, and the
+    // number of times an ingest rewrote a location's city name or coordinates
+    public static final String KEY_LOCATION_REGISTRY_HITS = "location_registry_hits";
+    public static final String KEY_LOCATION_REGISTRY_MISSES = "location_registry_misses";
+    public static final String KEY_LOCATION_REGISTRY_UPDATES = "location_registry_updates";
+
+    // Stores a freshly downloaded forecast in one transaction.  The arg is the location setting;
+    // the extras hold the city details, the days as a ForecastBatch and the retention cutoff.
+    // Returns a Bundle with the location id and the number of rows inserted.
+    public static final String METHOD_INGEST_FORECAST = "ingest_forecast";
+    public static final String KEY_INGEST_CITY_NAME = "city_name";
+    public static final String KEY_INGEST_COORD_LAT = "coord_lat";
+    public static final String KEY_INGEST_COORD_LONG = "coord_long";
+    public static final String KEY_INGEST_BATCH = "batch";
+    // Weather rows dated on or before this are deleted
+    public static final String KEY_INGEST_RETENTION_CUTOFF = "retention_cutoff";
+    public static final String KEY_INGEST_LOCATION_ID = "location_id";
+    public static final String KEY_INGEST_INSERTED = "inserted";
+    public static final String KEY_INGEST_DELETED = "deleted";
+    // How long each step of the ingest took, in microseconds
+    public static final String KEY_INGEST_LOCATION_MICROS = "location_micros";
+    public static final String KEY_INGEST_INSERT_MICROS = "insert_micros";
+    public static final String KEY_INGEST_RETENTION_MICROS = "retention_micros";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return JulianDay.normalize(startDate, TimeZone.getDefault());
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -165,4 +199,72 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the table contents of the current conditions table.  It holds a
+        copy of the first forecast row on or after today for each location, so "today for this
+        location" is a primary key lookup instead of a join.  The provider maintains it whenever
+        the weather table changes; it is read-only through the provider.
+     */
+    public static final class CurrentConditionsEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CURRENT_CONDITIONS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CURRENT_CONDITIONS;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CURRENT_CONDITIONS;
+
+        public static final String TABLE_NAME = "current_conditions";
+
+        // The columns mirror the weather table so projections can be shared.  The location
+        // key is the primary key: there is one row per location.
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        public static final String COLUMN_LOCATION_SETTING = LocationEntry.COLUMN_LOCATION_SETTING;
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_SHORT_DESC = WeatherEntry.COLUMN_SHORT_DESC;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        public static Uri buildCurrentConditionsUri(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the sync stats table.  Each sync adds one
+        row per stage it went through (network, parse, database, fan-out), so the time spent in
+        a sync can be broken down after the fact.  The provider keeps only the most recent rows,
+        as a ring buffer.  Rows are added with bulkInsert, one call per sync.
+     */
+    public static final class SyncStatsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_STATS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_STATS;
+
+        public static final String TABLE_NAME = "sync_stats";
+
+        // Wall clock time the sync started, in milliseconds.  Shared by all rows of one sync.
+        public static final String COLUMN_SYNC_START = "sync_start";
+        // The stage name, e.g. "connect" or "insert"
+        public static final String COLUMN_STAGE = "stage";
+        public static final String COLUMN_DURATION_MICROS = "duration_us";
+        // Bytes read or written by the stage, 0 if it doesn't move any
+        public static final String COLUMN_BYTES = "bytes";
+        // Rows (or days, or items) the stage handled, 0 if not applicable
+        public static final String COLUMN_ROWS = "rows";
+    }
 }
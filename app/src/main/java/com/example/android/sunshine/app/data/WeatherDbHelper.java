@@ -16,10 +16,14 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.app.data.WeatherContract.CurrentConditionsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncStatsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
@@ -28,12 +32,43 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 4;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Number of WAL pages after which SQLite checkpoints on its own.  A 14 day forecast is only a
+    // handful of pages, so this mostly matters for the retention delete and large bulk inserts.
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 500;
+
+    private final Context mContext;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+        // The sync adapter writes while the UI, widgets and Muzei read.  In WAL mode readers see
+        // the last committed snapshot and are served from the connection pool instead of
+        // waiting on the writer's lock.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // PRAGMAs that return a row have to go through rawQuery, and the cursor has to be
+        // stepped for the statement to actually run.
+        Cursor c = db.rawQuery("PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES, null);
+        c.moveToFirst();
+        c.close();
+    }
+
+    /**
+     * Folds the write-ahead log back into the main database file without blocking readers.
+     * Called after large writes so the log doesn't keep growing between automatic checkpoints.
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        Cursor c = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        c.moveToFirst();
+        c.close();
     }
 
     @Override
@@ -79,8 +114,124 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // One row per location: a copy of that location's forecast for today, kept up to date
+        // by the provider so the widgets and Muzei don't have to join to find it.
+        final String SQL_CREATE_CURRENT_CONDITIONS_TABLE = "CREATE TABLE " +
+                CurrentConditionsEntry.TABLE_NAME + " (" +
+                CurrentConditionsEntry.COLUMN_LOC_KEY + " INTEGER PRIMARY KEY, " +
+                CurrentConditionsEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+                CurrentConditionsEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                CurrentConditionsEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                CurrentConditionsEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                CurrentConditionsEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                CurrentConditionsEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                CurrentConditionsEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                CurrentConditionsEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                CurrentConditionsEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                CurrentConditionsEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+                " FOREIGN KEY (" + CurrentConditionsEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));";
+
+        // Per-stage timings of recent syncs; the provider trims it to the newest rows
+        final String SQL_CREATE_SYNC_STATS_TABLE = "CREATE TABLE " + SyncStatsEntry.TABLE_NAME + " (" +
+                SyncStatsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                SyncStatsEntry.COLUMN_SYNC_START + " INTEGER NOT NULL, " +
+                SyncStatsEntry.COLUMN_STAGE + " TEXT NOT NULL, " +
+                SyncStatsEntry.COLUMN_DURATION_MICROS + " INTEGER NOT NULL, " +
+                SyncStatsEntry.COLUMN_BYTES + " INTEGER NOT NULL DEFAULT 0, " +
+                SyncStatsEntry.COLUMN_ROWS + " INTEGER NOT NULL DEFAULT 0);";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_CURRENT_CONDITIONS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_STATS_TABLE);
+
+        // Snapshots of an earlier database would outlive its data; the next sync writes new ones
+        ForecastSnapshot.deleteAll(mContext);
+    }
+
+    //INSERT OR REPLACE INTO current_conditions (...) SELECT ...
+    //FROM (SELECT location_id, MIN(date) FROM weather WHERE date >= ? [AND location_id = ?]
+    //      GROUP BY location_id) f
+    //INNER JOIN weather w ON (date, location_id) INNER JOIN location l
+    // The first date per location is found in one pass over the date range, then each row is
+    // a lookup on the (date, location_id) unique index.  A correlated MIN() subquery instead
+    // ran once per weather row, which took most of a minute at 2000 locations by a year.
+    private static final String SQL_SELECT_CURRENT_CONDITIONS_HEAD =
+            "INSERT OR REPLACE INTO " + CurrentConditionsEntry.TABLE_NAME + " (" +
+                    CurrentConditionsEntry.COLUMN_LOC_KEY + ", " +
+                    CurrentConditionsEntry.COLUMN_LOCATION_SETTING + ", " +
+                    CurrentConditionsEntry.COLUMN_DATE + ", " +
+                    CurrentConditionsEntry.COLUMN_SHORT_DESC + ", " +
+                    CurrentConditionsEntry.COLUMN_WEATHER_ID + ", " +
+                    CurrentConditionsEntry.COLUMN_MIN_TEMP + ", " +
+                    CurrentConditionsEntry.COLUMN_MAX_TEMP + ", " +
+                    CurrentConditionsEntry.COLUMN_HUMIDITY + ", " +
+                    CurrentConditionsEntry.COLUMN_PRESSURE + ", " +
+                    CurrentConditionsEntry.COLUMN_WIND_SPEED + ", " +
+                    CurrentConditionsEntry.COLUMN_DEGREES + ") " +
+            "SELECT w." + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    "l." + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                    "w." + WeatherEntry.COLUMN_DATE + ", " +
+                    "w." + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    "w." + WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    "w." + WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    "w." + WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    "w." + WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    "w." + WeatherEntry.COLUMN_PRESSURE + ", " +
+                    "w." + WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    "w." + WeatherEntry.COLUMN_DEGREES +
+            " FROM (SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", MIN(" +
+                    WeatherEntry.COLUMN_DATE + ") AS first_date FROM " + WeatherEntry.TABLE_NAME +
+                    " WHERE " + WeatherEntry.COLUMN_DATE + " >= ?";
+
+    private static final String SQL_SELECT_CURRENT_CONDITIONS_TAIL =
+            " GROUP BY " + WeatherEntry.COLUMN_LOC_KEY + ") f" +
+            " INNER JOIN " + WeatherEntry.TABLE_NAME + " w ON w." + WeatherEntry.COLUMN_DATE +
+                    " = f.first_date AND w." + WeatherEntry.COLUMN_LOC_KEY + " = f." +
+                    WeatherEntry.COLUMN_LOC_KEY +
+            " INNER JOIN " + LocationEntry.TABLE_NAME + " l ON w." + WeatherEntry.COLUMN_LOC_KEY +
+                    " = l." + LocationEntry._ID;
+
+    /**
+     * Recomputes the current conditions row for one location.  Call this inside the transaction
+     * that wrote the location's weather so readers never see the two tables disagree.
+     *
+     * @param today the normalized start of today, see {@link WeatherContract#normalizeDate}
+     */
+    static void refreshCurrentConditions(SQLiteDatabase db, long locationId, long today) {
+        String[] locationArgs = new String[]{Long.toString(locationId)};
+        db.delete(CurrentConditionsEntry.TABLE_NAME,
+                CurrentConditionsEntry.COLUMN_LOC_KEY + " = ?", locationArgs);
+        db.execSQL(SQL_SELECT_CURRENT_CONDITIONS_HEAD + " AND " + WeatherEntry.COLUMN_LOC_KEY +
+                " = ?" + SQL_SELECT_CURRENT_CONDITIONS_TAIL, new Object[]{today, locationId});
+    }
+
+    /**
+     * Recomputes the current conditions of every location, e.g. after a delete or once the day
+     * has rolled over.
+     *
+     * @param today the normalized start of today, see {@link WeatherContract#normalizeDate}
+     */
+    static void rebuildCurrentConditions(SQLiteDatabase db, long today) {
+        db.delete(CurrentConditionsEntry.TABLE_NAME, null, null);
+        db.execSQL(SQL_SELECT_CURRENT_CONDITIONS_HEAD + SQL_SELECT_CURRENT_CONDITIONS_TAIL,
+                new Object[]{today});
+    }
+
+    /**
+     * A row is only ever for a day on or after the one the table was built for, so any row
+     * before today means the day has rolled over since.  Locations without a row have no
+     * forecast from that day on, and still don't.
+     *
+     * @param today the normalized start of today, see {@link WeatherContract#normalizeDate}
+     * @return whether the current conditions need {@link #rebuildCurrentConditions}
+     */
+    static boolean isCurrentConditionsStale(SQLiteDatabase db, long today) {
+        return DatabaseUtils.queryNumEntries(db, CurrentConditionsEntry.TABLE_NAME,
+                CurrentConditionsEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(today)}) > 0;
     }
 
     @Override
@@ -93,6 +244,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + CurrentConditionsEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncStatsEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -22,18 +22,45 @@ import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private final QueryCache mQueryCache = new QueryCache();
+    private final LocationRegistry mLocations = new LocationRegistry();
+    private final AtomicInteger mQueryCount = new AtomicInteger();
+    // Compiled on the first forecast ingest and reused for every one after that
+    private SQLiteStatement mInsertWeatherStatement;
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int CURRENT_CONDITIONS = 400;
+    static final int CURRENT_CONDITIONS_WITH_LOCATION = 401;
+    static final int SYNC_STATS = 500;
+
+    // Sync stats rows kept; older ones are dropped as new syncs are recorded
+    static final int SYNC_STATS_MAX_ROWS = 512;
+
+    // The normalized day the current conditions table is known to be fresh for.  The first
+    // read of each day checks the table's own dates and only rebuilds it if they're behind,
+    // even if no sync has happened yet.
+    private volatile long mCurrentConditionsDay;
+    // Held while checking the table, so concurrent first reads don't each rebuild it.  Not the
+    // provider's own lock, which an ingest holds for the length of a sync.
+    private final Object mCurrentConditionsLock = new Object();
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -51,36 +78,49 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
-    //location.location_setting = ?
-    private static final String sLocationSettingSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+    // The location setting is resolved to its row through LocationRegistry, so the joins
+    // select on the weather table's location key rather than comparing settings row by row
 
-    //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+    //weather.location_id = ?
+    private static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND date >= ?
+    private static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
-    //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
-            WeatherContract.LocationEntry.TABLE_NAME +
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+    //weather.location_id = ? AND date = ?
+    private static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+    /**
+     * @return the location's row id as a selection argument.  An unknown location gets an id
+     * no row has, so the join still runs and returns an empty cursor with the right columns.
+     */
+    private String lookupLocationId(Uri uri) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        return Long.toString(
+                mLocations.lookup(mOpenHelper.getReadableDatabase(), locationSetting));
+    }
+
+    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationId = lookupLocationId(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
         String[] selectionArgs;
         String selection;
 
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+            selection = sLocationIdSelection;
+            selectionArgs = new String[]{locationId};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{locationId, Long.toString(startDate)};
+            selection = sLocationIdWithStartDateSelection;
         }
 
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
@@ -95,19 +135,88 @@ public class WeatherProvider extends ContentProvider {
 
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        String locationId = lookupLocationId(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                sLocationIdAndDaySelection,
+                new String[]{locationId, Long.toString(date)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    //current_conditions.location_setting = ?
+    private static final String sCurrentConditionsLocationSettingSelection =
+            WeatherContract.CurrentConditionsEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
+    private Cursor getCurrentConditions(String[] projection, String selection,
+                                        String[] selectionArgs, String sortOrder) {
+        ensureCurrentConditionsFresh();
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.CurrentConditionsEntry.TABLE_NAME,
+                projection,
+                selection,
+                selectionArgs,
                 null,
                 null,
                 sortOrder
         );
     }
 
+    private void ensureCurrentConditionsFresh() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        if (today == mCurrentConditionsDay) {
+            return;
+        }
+        synchronized (mCurrentConditionsLock) {
+            if (today == mCurrentConditionsDay) {
+                return;
+            }
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            // A new process usually finds the table already built today, by the last sync
+            if (WeatherDbHelper.isCurrentConditionsStale(db, today)) {
+                db.beginTransactionNonExclusive();
+                try {
+                    WeatherDbHelper.rebuildCurrentConditions(db, today);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            mCurrentConditionsDay = today;
+        }
+    }
+
+    /**
+     * Serves the weather-by-location queries from {@link QueryCache} when possible.  On a miss
+     * the join is run once with every column so later callers with other projections hit.
+     */
+    private Cursor getWeatherByLocationCached(
+            int match, Uri uri, String[] projection, String sortOrder) {
+        String key = QueryCache.buildKey(uri, projection, null, null, sortOrder);
+        if (key == null) {
+            return getWeatherByLocation(match, uri, projection, sortOrder);
+        }
+        Cursor cursor = mQueryCache.get(key, projection);
+        if (cursor != null) {
+            return cursor;
+        }
+        long generation = mQueryCache.getGeneration();
+        return mQueryCache.put(key, generation,
+                getWeatherByLocation(match, uri, QueryCache.CANONICAL_PROJECTION, sortOrder),
+                projection);
+    }
+
+    private Cursor getWeatherByLocation(int match, Uri uri, String[] projection, String sortOrder) {
+        if (match == WEATHER_WITH_LOCATION_AND_DATE) {
+            return getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+        }
+        return getWeatherByLocationSetting(uri, projection, sortOrder);
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +239,12 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_CURRENT_CONDITIONS, CURRENT_CONDITIONS);
+        matcher.addURI(authority, WeatherContract.PATH_CURRENT_CONDITIONS + "/*",
+                CURRENT_CONDITIONS_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_STATS, SYNC_STATS);
         return matcher;
     }
 
@@ -164,6 +279,12 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case CURRENT_CONDITIONS:
+                return WeatherContract.CurrentConditionsEntry.CONTENT_TYPE;
+            case CURRENT_CONDITIONS_WITH_LOCATION:
+                return WeatherContract.CurrentConditionsEntry.CONTENT_ITEM_TYPE;
+            case SYNC_STATS:
+                return WeatherContract.SyncStatsEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -175,16 +296,14 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        mQueryCount.incrementAndGet();
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getWeatherByLocationCached(match, uri, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -213,6 +332,32 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "current/*"
+            case CURRENT_CONDITIONS_WITH_LOCATION: {
+                retCursor = getCurrentConditions(projection,
+                        sCurrentConditionsLocationSettingSelection,
+                        new String[]{WeatherContract.CurrentConditionsEntry.getLocationSettingFromUri(uri)},
+                        sortOrder);
+                break;
+            }
+            // "current"
+            case CURRENT_CONDITIONS: {
+                retCursor = getCurrentConditions(projection, selection, selectionArgs, sortOrder);
+                break;
+            }
+            // "sync_stats"
+            case SYNC_STATS: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncStatsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -233,11 +378,20 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id;
+                db.beginTransactionNonExclusive();
+                try {
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    refreshCurrentConditions(db, values);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                notifyCurrentConditionsChanged();
                 break;
             }
             case LOCATION: {
@@ -251,6 +405,8 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        mQueryCache.invalidate();
+        ForecastSnapshot.deleteAll(getContext());
         getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
@@ -262,25 +418,71 @@ public class WeatherProvider extends ContentProvider {
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
-        switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        db.beginTransactionNonExclusive();
+        try {
+            switch (match) {
+                case WEATHER:
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case LOCATION:
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case SYNC_STATS:
+                    rowsDeleted = db.delete(
+                            WeatherContract.SyncStatsEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            if (rowsDeleted != 0 && match != SYNC_STATS) {
+                rebuildCurrentConditions(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (match == LOCATION) {
+            // Once the delete is visible, so a concurrent lookup can't cache a deleted row
+            mLocations.invalidate();
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
+            // The retention delete is the last write of a sync, so it's a good moment to
+            // fold the write-ahead log back into the database.
+            if (match == WEATHER) {
+                WeatherDbHelper.checkpoint(db);
+            }
+            if (match != SYNC_STATS) {
+                mQueryCache.invalidate();
+                ForecastSnapshot.deleteAll(getContext());
+                notifyCurrentConditionsChanged();
+            }
             getContext().getContentResolver().notifyChange(uri, null);
         }
         return rowsDeleted;
     }
 
+    private void refreshCurrentConditions(SQLiteDatabase db, ContentValues weatherValues) {
+        Long locationId = weatherValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        if (locationId != null) {
+            WeatherDbHelper.refreshCurrentConditions(db, locationId,
+                    WeatherContract.normalizeDate(System.currentTimeMillis()));
+        }
+    }
+
+    private void rebuildCurrentConditions(SQLiteDatabase db) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        WeatherDbHelper.rebuildCurrentConditions(db, today);
+        mCurrentConditionsDay = today;
+    }
+
+    private void notifyCurrentConditionsChanged() {
+        getContext().getContentResolver().notifyChange(
+                WeatherContract.CurrentConditionsEntry.CONTENT_URI, null);
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -296,21 +498,36 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
 
-        switch (match) {
-            case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        db.beginTransactionNonExclusive();
+        try {
+            switch (match) {
+                case WEATHER:
+                    normalizeDate(values);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+                    break;
+                case LOCATION:
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            if (rowsUpdated != 0) {
+                rebuildCurrentConditions(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (match == LOCATION) {
+            mLocations.invalidate();
         }
         if (rowsUpdated != 0) {
+            mQueryCache.invalidate();
+            ForecastSnapshot.deleteAll(getContext());
             getContext().getContentResolver().notifyChange(uri, null);
+            notifyCurrentConditionsChanged();
         }
         return rowsUpdated;
     }
@@ -319,22 +536,70 @@ public class WeatherProvider extends ContentProvider {
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        int returnCount;
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
+                // IMMEDIATE rather than EXCLUSIVE: in WAL mode readers keep going while we write
+                db.beginTransactionNonExclusive();
+                returnCount = 0;
                 try {
+                    Set<Long> locationIds = new HashSet<>();
                     for (ContentValues value : values) {
                         normalizeDate(value);
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        if (_id != -1) {
+                            returnCount++;
+                            locationIds.add(value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                        }
+                    }
+                    // Keep today's row for each location we touched in step with the forecast
+                    long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+                    for (long locationId : locationIds) {
+                        WeatherDbHelper.refreshCurrentConditions(db, locationId, today);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                mQueryCache.invalidate();
+                ForecastSnapshot.deleteAll(getContext());
+                getContext().getContentResolver().notifyChange(uri, null);
+                notifyCurrentConditionsChanged();
+                return returnCount;
+            case LOCATION:
+                db.beginTransactionNonExclusive();
+                returnCount = 0;
+                try {
+                    for (ContentValues value : values) {
+                        long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, value);
+                        if (_id != -1) {
+                            returnCount++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                mQueryCache.invalidate();
+                ForecastSnapshot.deleteAll(getContext());
+                getContext().getContentResolver().notifyChange(uri, null);
+                return returnCount;
+            case SYNC_STATS:
+                db.beginTransactionNonExclusive();
+                returnCount = 0;
+                try {
+                    for (ContentValues value : values) {
+                        long _id = db.insert(WeatherContract.SyncStatsEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
                         }
                     }
+                    db.execSQL(sTrimSyncStatsSql, new Object[]{SYNC_STATS_MAX_ROWS});
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
+                // Nothing cached depends on the stats, so the query cache stays as it is
                 getContext().getContentResolver().notifyChange(uri, null);
                 return returnCount;
             default:
@@ -342,12 +607,182 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    //DELETE FROM sync_stats WHERE _id <= (SELECT MAX(_id) FROM sync_stats) - ?
+    private static final String sTrimSyncStatsSql =
+            "DELETE FROM " + WeatherContract.SyncStatsEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.SyncStatsEntry._ID + " <= (SELECT MAX(" +
+                    WeatherContract.SyncStatsEntry._ID + ") FROM " +
+                    WeatherContract.SyncStatsEntry.TABLE_NAME + ") - ?";
+
+    //weather.date <= ?
+    private static final String sRetentionSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?";
+
+    private static final String sInsertWeatherSql =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Binds every day of a batch into the compiled weather insert.  Must be called inside a
+     * transaction, from {@link #ingestForecast} which serializes use of the statement.
+     */
+    private int insertForecastBatch(SQLiteDatabase db, long locationId, ForecastBatch batch) {
+        if (mInsertWeatherStatement == null) {
+            mInsertWeatherStatement = db.compileStatement(sInsertWeatherSql);
+        }
+        final SQLiteStatement insert = mInsertWeatherStatement;
+        int inserted = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            insert.bindLong(1, locationId);
+            insert.bindLong(2, batch.dates[i]);
+            insert.bindLong(3, batch.weatherIds[i]);
+            insert.bindString(4, batch.shortDescs[i]);
+            insert.bindDouble(5, batch.minTemps[i]);
+            insert.bindDouble(6, batch.maxTemps[i]);
+            insert.bindDouble(7, batch.humidities[i]);
+            insert.bindDouble(8, batch.pressures[i]);
+            insert.bindDouble(9, batch.windSpeeds[i]);
+            insert.bindDouble(10, batch.degrees[i]);
+            if (insert.executeInsert() != -1) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Stores a downloaded forecast: resolves the location, inserts the weather rows, drops the
+     * days past the retention cutoff and refreshes the current conditions, all in a single
+     * transaction.  Observers get one notification for the whole authority instead of one per
+     * step.  See {@link WeatherContract#METHOD_INGEST_FORECAST}.
+     */
+    private synchronized Bundle ingestForecast(String locationSetting, Bundle extras) {
+        if (locationSetting == null || extras == null) {
+            throw new IllegalArgumentException("Forecast ingest needs a location setting and extras");
+        }
+        extras.setClassLoader(ForecastBatch.class.getClassLoader());
+        ForecastBatch batch = extras.getParcelable(WeatherContract.KEY_INGEST_BATCH);
+        if (batch == null) {
+            batch = new ForecastBatch(0);
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long locationId;
+        int inserted;
+        int deleted = 0;
+        long locationMicros;
+        long insertMicros;
+        long retentionMicros = 0;
+        boolean success = false;
+        db.beginTransactionNonExclusive();
+        try {
+            long start = SystemClock.elapsedRealtimeNanos();
+            Trace.beginSection("WeatherProvider.location");
+            try {
+                locationId = mLocations.resolve(db, locationSetting,
+                        extras.getString(WeatherContract.KEY_INGEST_CITY_NAME),
+                        extras.getDouble(WeatherContract.KEY_INGEST_COORD_LAT),
+                        extras.getDouble(WeatherContract.KEY_INGEST_COORD_LONG));
+            } finally {
+                Trace.endSection();
+            }
+            long now = SystemClock.elapsedRealtimeNanos();
+            locationMicros = (now - start) / 1000;
+            start = now;
+
+            Trace.beginSection("WeatherProvider.insert");
+            try {
+                inserted = insertForecastBatch(db, locationId, batch);
+            } finally {
+                Trace.endSection();
+            }
+            now = SystemClock.elapsedRealtimeNanos();
+            insertMicros = (now - start) / 1000;
+            start = now;
+
+            if (extras.containsKey(WeatherContract.KEY_INGEST_RETENTION_CUTOFF)) {
+                Trace.beginSection("WeatherProvider.retention");
+                try {
+                    deleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                            sRetentionSelection, new String[]{Long.toString(
+                                    extras.getLong(WeatherContract.KEY_INGEST_RETENTION_CUTOFF))});
+                } finally {
+                    Trace.endSection();
+                }
+                retentionMicros = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+            }
+            if (deleted != 0) {
+                rebuildCurrentConditions(db);
+            } else {
+                WeatherDbHelper.refreshCurrentConditions(db, locationId,
+                        WeatherContract.normalizeDate(System.currentTimeMillis()));
+            }
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            if (!success) {
+                // The registry may hold a location the rollback just undid
+                mLocations.invalidate();
+            }
+        }
+        WeatherDbHelper.checkpoint(db);
+        mQueryCache.invalidate();
+        // The sync writes a new snapshot once this returns; other callers leave none behind
+        ForecastSnapshot.delete(getContext(), locationSetting);
+        // The base uri reaches every observer registered under this authority
+        getContext().getContentResolver().notifyChange(WeatherContract.BASE_CONTENT_URI, null);
+
+        Bundle result = new Bundle();
+        result.putLong(WeatherContract.KEY_INGEST_LOCATION_ID, locationId);
+        result.putInt(WeatherContract.KEY_INGEST_INSERTED, inserted);
+        result.putInt(WeatherContract.KEY_INGEST_DELETED, deleted);
+        result.putLong(WeatherContract.KEY_INGEST_LOCATION_MICROS, locationMicros);
+        result.putLong(WeatherContract.KEY_INGEST_INSERT_MICROS, insertMicros);
+        result.putLong(WeatherContract.KEY_INGEST_RETENTION_MICROS, retentionMicros);
+        return result;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_GET_QUERY_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putInt(WeatherContract.KEY_QUERY_CACHE_HITS, mQueryCache.getHitCount());
+            stats.putInt(WeatherContract.KEY_QUERY_CACHE_MISSES, mQueryCache.getMissCount());
+            stats.putInt(WeatherContract.KEY_QUERY_COUNT, mQueryCount.get());
+            stats.putInt(WeatherContract.KEY_LOCATION_REGISTRY_HITS, mLocations.getHitCount());
+            stats.putInt(WeatherContract.KEY_LOCATION_REGISTRY_MISSES, mLocations.getMissCount());
+            stats.putInt(WeatherContract.KEY_LOCATION_REGISTRY_UPDATES,
+                    mLocations.getUpdateCount());
+            return stats;
+        }
+        if (WeatherContract.METHOD_INGEST_FORECAST.equals(method)) {
+            return ingestForecast(arg, extras);
+        }
+        return super.call(method, arg, extras);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        synchronized (this) {
+            if (mInsertWeatherStatement != null) {
+                mInsertWeatherStatement.close();
+                mInsertWeatherStatement = null;
+            }
+        }
         mOpenHelper.close();
         super.shutdown();
     }
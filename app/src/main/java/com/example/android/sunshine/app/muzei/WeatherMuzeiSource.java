@@ -16,28 +16,56 @@
 package com.example.android.sunshine.app.muzei;
 
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.support.v4.content.FileProvider;
+import android.util.DisplayMetrics;
+import android.util.Log;
 
 import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
 /**
  * Muzei source that changes your background based on the current weather conditions
  */
 public class WeatherMuzeiSource extends MuzeiArtSource {
     private static final String[] FORECAST_COLUMNS = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+            WeatherContract.CurrentConditionsEntry.COLUMN_WEATHER_ID,
+            WeatherContract.CurrentConditionsEntry.COLUMN_SHORT_DESC
     };
     // these indices must match the projection
     private static final int INDEX_WEATHER_ID = 0;
     private static final int INDEX_SHORT_DESC = 1;
 
+    private static final String LOG_TAG = WeatherMuzeiSource.class.getSimpleName();
+
+    private static final String MUZEI_PACKAGE = "net.nurik.roman.muzei";
+    // Downscaled wallpapers, under the files dir; must match res/xml/file_paths.xml
+    private static final String WALLPAPER_DIR = "muzei";
+    private static final int JPEG_QUALITY = 85;
+
+    // Wallpaper bytes downloaded on the given day, in the default shared preferences
+    private static final String PREF_DOWNLOAD_DAY = "muzei_download_day";
+    private static final String PREF_DOWNLOAD_BYTES = "muzei_download_bytes";
+
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
     }
@@ -55,25 +83,175 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        // Right after boot the snapshot saves waiting for the database to open
+        ForecastSnapshot snapshot = ForecastSnapshot.read(this, location);
+        int today = snapshot != null ? snapshot.indexOfDate(
+                WeatherContract.normalizeDate(System.currentTimeMillis())) : -1;
+        if (today >= 0) {
+            publishConditions(location, snapshot.getWeatherId(today),
+                    snapshot.getShortDesc(today));
+            return;
+        }
+
+        Uri currentConditionsUri =
+                WeatherContract.CurrentConditionsEntry.buildCurrentConditionsUri(location);
+        Cursor cursor = getContentResolver().query(currentConditionsUri, FORECAST_COLUMNS, null,
+                null, null);
         if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
-
-            String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
-            // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
-            }
+            publishConditions(location, cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getString(INDEX_SHORT_DESC));
         }
         cursor.close();
     }
+
+    private void publishConditions(String location, int weatherId, String desc) {
+        String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
+        // Only publish a new wallpaper if we have a valid image, and it isn't the one
+        // already showing.  The token is the image url, so it identifies the bucket.
+        Artwork current = getCurrentArtwork();
+        if (imageUrl != null &&
+                (current == null || !imageUrl.equals(current.getToken()))) {
+            Uri imageUri = getLocalWallpaper(imageUrl);
+            if (imageUri == null) {
+                // Let Muzei download it itself
+                imageUri = Uri.parse(imageUrl);
+            }
+            publishArtwork(new Artwork.Builder()
+                    .imageUri(imageUri)
+                    .token(imageUrl)
+                    .title(desc)
+                    .byline(location)
+                    .viewIntent(new Intent(this, MainActivity.class))
+                    .build());
+        }
+    }
+
+    /**
+     * Returns a content uri for a copy of the image scaled down to the screen, downloading
+     * and scaling it the first time.  The copies are kept, so each condition's photo is only
+     * downloaded once.  Muzei is granted read access to the uri.
+     *
+     * @return the uri, or null if the image couldn't be fetched
+     */
+    private Uri getLocalWallpaper(String imageUrl) {
+        File dir = new File(getFilesDir(), WALLPAPER_DIR);
+        File wallpaper = new File(dir, Integer.toHexString(imageUrl.hashCode()) + ".jpg");
+        if (!wallpaper.exists()) {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                return null;
+            }
+            File download = new File(getCacheDir(), wallpaper.getName() + ".download");
+            // Only a complete JPEG gets the wallpaper's name, since that's all the check above
+            // looks at
+            File tmp = new File(dir, wallpaper.getName() + ".tmp");
+            try {
+                long bytes = download(imageUrl, download);
+                addDownloadedBytes(bytes);
+                if (!downscale(download, tmp) || !tmp.renameTo(wallpaper)) {
+                    return null;
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error fetching wallpaper " + imageUrl, e);
+                return null;
+            } finally {
+                download.delete();
+                tmp.delete();
+            }
+        }
+        Uri uri = FileProvider.getUriForFile(this, getString(R.string.file_provider_authority),
+                wallpaper);
+        grantUriPermission(MUZEI_PACKAGE, uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        return uri;
+    }
+
+    private static long download(String imageUrl, File destination) throws IOException {
+        HttpURLConnection urlConnection = null;
+        InputStream in = null;
+        OutputStream out = null;
+        long bytes = 0;
+        try {
+            urlConnection = (HttpURLConnection) new URL(imageUrl).openConnection();
+            in = urlConnection.getInputStream();
+            out = new FileOutputStream(destination);
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                bytes += read;
+            }
+            return bytes;
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+            if (in != null) {
+                in.close();
+            }
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Decodes the downloaded photo so its short side just covers the long side of the screen
+     * (Muzei crops it to either orientation) and writes it out as a JPEG.
+     */
+    private boolean downscale(File source, File destination) throws IOException {
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int required = Math.max(metrics.widthPixels, metrics.heightPixels);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), options);
+        int shortSide = Math.min(options.outWidth, options.outHeight);
+        if (shortSide <= 0) {
+            return false;
+        }
+        int sampleSize = 1;
+        while (shortSide / (sampleSize * 2) >= required) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = BitmapFactory.decodeFile(source.getPath(), options);
+        if (bitmap == null) {
+            return false;
+        }
+        float scale = (float) required / Math.min(bitmap.getWidth(), bitmap.getHeight());
+        if (scale < 1f) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.round(bitmap.getWidth() * scale),
+                    Math.round(bitmap.getHeight() * scale), true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+                bitmap = scaled;
+            }
+        }
+
+        OutputStream out = new FileOutputStream(destination);
+        try {
+            return bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Adds to the count of wallpaper bytes downloaded today; the count restarts each day.
+     */
+    private void addDownloadedBytes(long bytes) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long total = bytes;
+        if (prefs.getLong(PREF_DOWNLOAD_DAY, 0) == today) {
+            total += prefs.getLong(PREF_DOWNLOAD_BYTES, 0);
+        }
+        prefs.edit()
+                .putLong(PREF_DOWNLOAD_DAY, today)
+                .putLong(PREF_DOWNLOAD_BYTES, total)
+                .apply();
+        Log.d(LOG_TAG, "Downloaded " + bytes + " wallpaper bytes, " + total + " today");
+    }
 }
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads the forecast for a location while it's still being typed into the settings, so
+ * the list is ready by the time the dialog closes.
+ *
+ * {@link #onLocationTyped} is called on every edit; once the text has stopped changing for
+ * {@link #DEBOUNCE_MILLIS} the forecast for it is fetched and staged in memory, keyed by the
+ * location.  A newer candidate cancels the fetches of the older ones.  When the location is
+ * confirmed, {@link #commit} asks for an expedited sync, which picks up the staged response
+ * through {@link #takeStaged} instead of going to the network.  Going through the sync
+ * manager keeps this from running alongside a scheduled sync.  Nothing reaches the database
+ * until then; {@link #discard} drops everything if the dialog is cancelled.
+ */
+public class LocationPrefetcher {
+    private static final String LOG_TAG = LocationPrefetcher.class.getSimpleName();
+
+    static final long DEBOUNCE_MILLIS = 700;
+    // A staged forecast older than this is fetched again rather than shown
+    static final long MAX_STAGED_AGE_MILLIS = 10 * 60 * 1000;
+    // Fetches running at once, counting ones that are being cancelled
+    private static final int MAX_CONCURRENT_FETCHES = 2;
+    private static final int MAX_STAGED = 4;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 15 * 1000;
+
+    private static final class Staged {
+        final String json;
+        final long stagedAt;
+
+        Staged(String json, long stagedAt) {
+            this.json = json;
+            this.stagedAt = stagedAt;
+        }
+    }
+
+    private final class Fetch implements Runnable {
+        final String location;
+        volatile boolean cancelled;
+        // Set if the location is confirmed while the fetch is still running
+        volatile boolean commitWhenDone;
+        private HttpURLConnection mConnection;
+        Future<?> future;
+
+        Fetch(String location) {
+            this.location = location;
+        }
+
+        @Override
+        public void run() {
+            String json = null;
+            try {
+                if (!cancelled) {
+                    json = download();
+                }
+            } catch (IOException e) {
+                if (!cancelled) {
+                    Log.d(LOG_TAG, "Prefetch of " + location + " failed: " + e);
+                }
+            } finally {
+                onFetchDone(this, cancelled ? null : json);
+            }
+        }
+
+        private String download() throws IOException {
+            HttpURLConnection connection =
+                    (HttpURLConnection) SunshineSyncAdapter.buildForecastUrl(location)
+                            .openConnection();
+            synchronized (this) {
+                if (cancelled) {
+                    return null;
+                }
+                mConnection = connection;
+            }
+            InputStream in = null;
+            try {
+                connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+                connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+                // Only a good forecast is worth staging; the sync reports anything else
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    return null;
+                }
+                in = connection.getInputStream();
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                byte[] chunk = new byte[8 * 1024];
+                int read;
+                while (!cancelled && (read = in.read(chunk)) != -1) {
+                    buffer.write(chunk, 0, read);
+                }
+                return cancelled || buffer.size() == 0 ? null : buffer.toString("UTF-8");
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+                connection.disconnect();
+            }
+        }
+
+        void cancel() {
+            HttpURLConnection connection;
+            synchronized (this) {
+                cancelled = true;
+                connection = mConnection;
+            }
+            if (future != null) {
+                future.cancel(false);
+            }
+            if (connection != null) {
+                // Unblocks a read in progress; a request still queued just never starts
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static LocationPrefetcher sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor =
+            Executors.newFixedThreadPool(MAX_CONCURRENT_FETCHES);
+
+    // Guarded by this
+    private String mPendingLocation;
+    private final Map<String, Fetch> mFetches = new HashMap<>();
+    private final LinkedHashMap<String, Staged> mStaged = new LinkedHashMap<>();
+
+    private final Runnable mStartPendingFetch = new Runnable() {
+        @Override
+        public void run() {
+            startPendingFetch();
+        }
+    };
+
+    public static synchronized LocationPrefetcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LocationPrefetcher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private LocationPrefetcher(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Called as the location is edited.  Restarts the debounce timer; text too short to be a
+     * location just cancels what's pending.
+     */
+    public synchronized void onLocationTyped(String candidate, int minLength) {
+        mHandler.removeCallbacks(mStartPendingFetch);
+        // Keyed by the text as typed, since that's what the preference will hold
+        mPendingLocation = candidate != null && candidate.length() >= minLength ? candidate : null;
+        if (mPendingLocation != null) {
+            mHandler.postDelayed(mStartPendingFetch, DEBOUNCE_MILLIS);
+        }
+    }
+
+    private synchronized void startPendingFetch() {
+        String location = mPendingLocation;
+        mPendingLocation = null;
+        if (location == null) {
+            return;
+        }
+        cancelFetchesExcept(location);
+        if (mFetches.containsKey(location) || getStaged(location) != null) {
+            return;
+        }
+        Fetch fetch = new Fetch(location);
+        mFetches.put(location, fetch);
+        fetch.future = mExecutor.submit(fetch);
+    }
+
+    private synchronized void onFetchDone(Fetch fetch, String json) {
+        if (mFetches.get(fetch.location) == fetch) {
+            mFetches.remove(fetch.location);
+        }
+        if (json != null) {
+            mStaged.remove(fetch.location);
+            mStaged.put(fetch.location, new Staged(json, SystemClock.elapsedRealtime()));
+            Iterator<String> oldest = mStaged.keySet().iterator();
+            while (mStaged.size() > MAX_STAGED) {
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        if (fetch.commitWhenDone) {
+            // Takes what was just staged, or fetches it again if the prefetch failed
+            SunshineSyncAdapter.syncImmediately(mContext);
+        }
+    }
+
+    /**
+     * The location was confirmed.  Drops everything staged for other locations, and syncs
+     * this one now if it was prefetched, or as soon as its prefetch completes.
+     *
+     * @return false if there's nothing staged or in flight for the location, in which case the
+     * caller should sync as usual
+     */
+    public synchronized boolean commit(String location) {
+        mHandler.removeCallbacks(mStartPendingFetch);
+        mPendingLocation = null;
+        cancelFetchesExcept(location);
+        Staged staged = getStaged(location);
+        mStaged.clear();
+        if (staged != null) {
+            mStaged.put(location, staged);
+            SunshineSyncAdapter.syncImmediately(mContext);
+            return true;
+        }
+        Fetch fetch = mFetches.get(location);
+        if (fetch != null) {
+            fetch.commitWhenDone = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The edit was cancelled: stops pending and running fetches and forgets what's staged.
+     */
+    public synchronized void discard() {
+        mHandler.removeCallbacks(mStartPendingFetch);
+        mPendingLocation = null;
+        cancelFetchesExcept(null);
+        mStaged.clear();
+    }
+
+    /**
+     * Hands a staged forecast to the sync, once.
+     *
+     * @return the forecast response for the location, or null if none was prefetched
+     */
+    synchronized String takeStaged(String location) {
+        Staged staged = getStaged(location);
+        mStaged.remove(location);
+        return staged != null ? staged.json : null;
+    }
+
+    synchronized boolean hasStaged(String location) {
+        return getStaged(location) != null;
+    }
+
+    private Staged getStaged(String location) {
+        Staged staged = mStaged.get(location);
+        if (staged != null
+                && SystemClock.elapsedRealtime() - staged.stagedAt > MAX_STAGED_AGE_MILLIS) {
+            mStaged.remove(location);
+            return null;
+        }
+        return staged;
+    }
+
+    private void cancelFetchesExcept(String location) {
+        Iterator<Map.Entry<String, Fetch>> fetches = mFetches.entrySet().iterator();
+        while (fetches.hasNext()) {
+            Map.Entry<String, Fetch> entry = fetches.next();
+            if (!entry.getKey().equals(location)) {
+                entry.getValue().cancel();
+                fetches.remove();
+            }
+        }
+    }
+}
@@ -8,8 +8,6 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -27,19 +25,25 @@ import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.art.ArtPrefetchService;
+import com.example.android.sunshine.app.art.WeatherArtCache;
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.core.ForecastJsonParser;
+import com.example.android.sunshine.core.JulianDay;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.MessageApi;
@@ -50,22 +54,20 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.Vector;
-import java.util.concurrent.ExecutionException;
+import java.util.TimeZone;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements GoogleApiClient.ConnectionCallbacks,
         GoogleApiClient.OnConnectionFailedListener, DataApi.DataListener, MessageApi.MessageListener {
@@ -76,15 +78,22 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
+    // A forecast younger than this (the periodic sync's flex window) isn't refreshed at startup
+    private static final long FRESH_MILLIS = SYNC_FLEXTIME * 1000L;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    static final String DEFAULT_FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    // Where forecasts are fetched from; tests point it at a local fake server
+    private static volatile String sForecastBaseUrl = DEFAULT_FORECAST_BASE_URL;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+            WeatherContract.CurrentConditionsEntry.COLUMN_WEATHER_ID,
+            WeatherContract.CurrentConditionsEntry.COLUMN_MAX_TEMP,
+            WeatherContract.CurrentConditionsEntry.COLUMN_MIN_TEMP,
+            WeatherContract.CurrentConditionsEntry.COLUMN_SHORT_DESC
     };
 
     // these indices must match the projection
@@ -133,20 +142,21 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        // Don't trust the snapshot to have caught up with a location that was just changed
+        String locationQuery = SettingsSnapshot.refresh(getContext()).location;
+        SyncTrace trace = new SyncTrace();
+        SyncStateStore state = new SyncStateStore(getContext());
+        long bodyBytes = 0;
+        int stored = 0;
 
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        InputStream inputStream = null;
 
         // Will contain the raw JSON response as a string.
         String forecastJsonStr = null;
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
         // BEGIN wear build
         Log.d(LOG_TAG, "mGoogleApiClient created");
         mGoogleApiClient = new GoogleApiClient.Builder(getContext())
@@ -158,272 +168,271 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         // END wear build
 
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
+            String staged = LocationPrefetcher.getInstance(getContext()).takeStaged(locationQuery);
+            if (staged != null) {
+                // Downloaded while the location was being typed; no need to fetch it again
+                Log.d(LOG_TAG, "Using the prefetched forecast for " + locationQuery);
+                stored = getWeatherDataFromJson(staged, locationQuery, trace, state);
+                return;
+            }
+
+            URL url = buildForecastUrl(locationQuery);
+
+            // Resolve the host on its own so the lookup isn't counted as connect time; the
+            // connection then gets the address from the resolver's cache
+            long stageStart = trace.begin(SyncTrace.STAGE_DNS);
+            try {
+                InetAddress.getByName(url.getHost());
+            } finally {
+                trace.end(SyncTrace.STAGE_DNS, stageStart, 0, 0);
+            }
 
             // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+            stageStart = trace.begin(SyncTrace.STAGE_CONNECT);
+            try {
+                urlConnection = (HttpURLConnection) url.openConnection();
+                urlConnection.setRequestMethod("GET");
+                urlConnection.connect();
+            } finally {
+                trace.end(SyncTrace.STAGE_CONNECT, stageStart, 0, 0);
+            }
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
+            // getInputStream() returns once the response headers have arrived
+            stageStart = trace.begin(SyncTrace.STAGE_FIRST_BYTE);
+            try {
+                inputStream = urlConnection.getInputStream();
+            } finally {
+                trace.end(SyncTrace.STAGE_FIRST_BYTE, stageStart, 0, 0);
+            }
             if (inputStream == null) {
                 // Nothing to do.
                 return;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+
+            // Read the input stream into a String
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            stageStart = trace.begin(SyncTrace.STAGE_BODY_READ);
+            try {
+                byte[] chunk = new byte[8 * 1024];
+                int read;
+                while ((read = inputStream.read(chunk)) != -1) {
+                    buffer.write(chunk, 0, read);
+                }
+            } finally {
+                bodyBytes = buffer.size();
+                trace.end(SyncTrace.STAGE_BODY_READ, stageStart, bodyBytes, 0);
             }
 
-            if (buffer.length() == 0) {
+            if (buffer.size() == 0) {
                 // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                state.setLocationStatus(LOCATION_STATUS_SERVER_DOWN);
                 return;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            forecastJsonStr = buffer.toString("UTF-8");
+            stored = getWeatherDataFromJson(forecastJsonStr, locationQuery, trace, state);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            state.setLocationStatus(LOCATION_STATUS_SERVER_DOWN);
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            state.setLocationStatus(LOCATION_STATUS_SERVER_INVALID);
         } finally {
             if (urlConnection != null) {
                 urlConnection.disconnect();
             }
-            if (reader != null) {
+            if (inputStream != null) {
                 try {
-                    reader.close();
+                    inputStream.close();
                 } catch (final IOException e) {
                     Log.e(LOG_TAG, "Error closing stream", e);
                 }
             }
+            // Everything the sync wants to remember, in one write
+            state.flush();
+            trace.recordTotal(bodyBytes, stored);
+            trace.flush(getContext());
         }
         return;
     }
 
+    /**
+     * @return the OpenWeatherMap query for a location's forecast
+     */
+    static URL buildForecastUrl(String locationQuery) throws MalformedURLException {
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String QUERY_PARAM = "q";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        String format = "json";
+        String units = "metric";
+        int numDays = 14;
+
+        Uri builtUri = Uri.parse(sForecastBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+        return new URL(builtUri.toString());
+    }
+
     /**
      * Take the String representing the complete forecast in JSON Format and
      * pull out the data we need to construct the Strings needed for the wireframes.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * The parsing itself is in {@link ForecastJsonParser}, which has no Android dependencies.
+     *
+     * @return the number of days stored
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
+    private int getWeatherDataFromJson(String forecastJsonStr,
+                                       String locationSetting,
+                                       final SyncTrace trace,
+                                       SyncStateStore state)
             throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
+            ForecastJsonParser.Forecast parsed;
+            ForecastBatch forecast = null;
+            TimeZone zone = TimeZone.getDefault();
+            int julianStartDay;
+            long parseStart = trace.begin(SyncTrace.STAGE_PARSE);
+            try {
+                parsed = ForecastJsonParser.parse(forecastJsonStr);
+
+                // do we have an error?
+                switch (parsed.code) {
                     case HttpURLConnection.HTTP_OK:
                         break;
                     case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
+                        state.setLocationStatus(LOCATION_STATUS_INVALID);
+                        return 0;
                     default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+                        state.setLocationStatus(LOCATION_STATUS_SERVER_DOWN);
+                        return 0;
                 }
-            }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-                //BEGIN send to wear
-                if(i == 0) { // for first row only
-                    sHighTemp = Utility.formatTemperature(getContext(), high);
-                    sLowTemp = Utility.formatTemperature(getContext(), low);
-                    sWeatherId = weatherId;
-                    // start to send dataitems to wear on background
-                    new AsyncTask<Void, Void, Void>() {
-                        @Override
-                        protected Void doInBackground( final Void ... params ) {
-                            onStartWearableSync();
-                            dataItemGenerate(CURRENT_TEMP_PATH);
-                            return null;
-                        }
-                        @Override
-                        protected void onPostExecute( final Void result ) {
-                            // continue what you are doing...
-                        }
-                    }.execute();
+                // Insert the new weather information into the database
+                forecast = new ForecastBatch(parsed.size());
+
+                // OWM returns daily forecasts based upon the local time of the city that is being
+                // asked for, which means that we need to know the GMT offset to translate this data
+                // properly.
+
+                // Since this data is also sent in-order and the first day is always the
+                // current day, we're going to take advantage of that to get a nice
+                // normalized UTC date for all of our weather.
+
+                // we start at the day returned by local time. Otherwise this is a mess.
+                julianStartDay = JulianDay.today(zone);
+
+                for(int i = 0; i < parsed.size(); i++) {
+                    // startOfDay already gives the same day start normalizeDate would
+                    forecast.add(JulianDay.startOfDay(julianStartDay + i, zone),
+                            parsed.weatherIds[i], parsed.descriptions[i], parsed.minTemps[i],
+                            parsed.maxTemps[i], parsed.humidities[i], parsed.pressures[i],
+                            parsed.windSpeeds[i], parsed.windDirections[i]);
+                    //BEGIN send to wear
+                    if(i == 0) { // for first row only
+                        sHighTemp = Utility.formatTemperature(getContext(), parsed.maxTemps[i]);
+                        sLowTemp = Utility.formatTemperature(getContext(), parsed.minTemps[i]);
+                        sWeatherId = parsed.weatherIds[i];
+                        // start to send dataitems to wear on background
+                        new AsyncTask<Void, Void, Void>() {
+                            @Override
+                            protected Void doInBackground( final Void ... params ) {
+                                long wearStart = trace.begin(SyncTrace.STAGE_WEAR_PUT);
+                                try {
+                                    onStartWearableSync();
+                                    dataItemGenerate(CURRENT_TEMP_PATH);
+                                } finally {
+                                    trace.end(SyncTrace.STAGE_WEAR_PUT, wearStart, 0, 1);
+                                }
+                                // The sync has usually flushed its own stages by now
+                                trace.flush(getContext());
+                                return null;
+                            }
+                            @Override
+                            protected void onPostExecute( final Void result ) {
+                                // continue what you are doing...
+                            }
+                        }.execute();
+                    }
+                    //END send to wear
                 }
-                //END send to wear
+            } finally {
+                trace.end(SyncTrace.STAGE_PARSE, parseStart, 0,
+                        forecast == null ? 0 : forecast.size());
             }
 
             int inserted = 0;
             // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+            if ( forecast.size() > 0 ) {
+                // The provider finds or adds the location, stores the forecast and deletes old
+                // data (so we don't build up an endless history) in a single transaction.
+                Bundle ingestExtras = new Bundle();
+                ingestExtras.putString(WeatherContract.KEY_INGEST_CITY_NAME, parsed.cityName);
+                ingestExtras.putDouble(WeatherContract.KEY_INGEST_COORD_LAT, parsed.cityLatitude);
+                ingestExtras.putDouble(WeatherContract.KEY_INGEST_COORD_LONG, parsed.cityLongitude);
+                ingestExtras.putParcelable(WeatherContract.KEY_INGEST_BATCH, forecast);
+                ingestExtras.putLong(WeatherContract.KEY_INGEST_RETENTION_CUTOFF,
+                        JulianDay.startOfDay(julianStartDay - 1, zone));
+                long stageStart = trace.begin(SyncTrace.STAGE_INGEST);
+                Bundle ingested;
+                try {
+                    ingested = getContext().getContentResolver().call(
+                            WeatherContract.BASE_CONTENT_URI,
+                            WeatherContract.METHOD_INGEST_FORECAST, locationSetting, ingestExtras);
+                } finally {
+                    trace.end(SyncTrace.STAGE_INGEST, stageStart, 0, forecast.size());
+                }
+                if (ingested != null) {
+                    inserted = ingested.getInt(WeatherContract.KEY_INGEST_INSERTED);
+                    // The provider times its own steps, inside the transaction
+                    trace.record(SyncTrace.STAGE_LOCATION,
+                            ingested.getLong(WeatherContract.KEY_INGEST_LOCATION_MICROS), 0, 1);
+                    trace.record(SyncTrace.STAGE_INSERT,
+                            ingested.getLong(WeatherContract.KEY_INGEST_INSERT_MICROS), 0, inserted);
+                    trace.record(SyncTrace.STAGE_RETENTION,
+                            ingested.getLong(WeatherContract.KEY_INGEST_RETENTION_MICROS), 0,
+                            ingested.getInt(WeatherContract.KEY_INGEST_DELETED));
+                }
 
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
+                // Lets the widgets and Muzei draw after a reboot without opening the database
+                stageStart = trace.begin(SyncTrace.STAGE_SNAPSHOT);
+                ForecastSnapshot.write(getContext(), locationSetting, forecast);
+                trace.end(SyncTrace.STAGE_SNAPSHOT, stageStart, 0, forecast.size());
 
+                stageStart = trace.begin(SyncTrace.STAGE_WIDGETS);
                 updateWidgets();
+                trace.end(SyncTrace.STAGE_WIDGETS, stageStart, 0, 0);
+                stageStart = trace.begin(SyncTrace.STAGE_MUZEI);
                 updateMuzei();
-                notifyWeather();
+                trace.end(SyncTrace.STAGE_MUZEI, stageStart, 0, 0);
+                stageStart = trace.begin(SyncTrace.STAGE_NOTIFICATION);
+                notifyWeather(state);
+                trace.end(SyncTrace.STAGE_NOTIFICATION, stageStart, 0, 0);
+                // Picks up an art pack whose prefetch was put off for lack of an unmetered network
+                ArtPrefetchService.prefetchIfNeeded(getContext());
+            }
+            Log.d(LOG_TAG, "Sync Complete. " + forecast.size() + " Inserted");
+            if ( forecast.size() > 0 ) {
+                state.setLastSync(locationSetting, System.currentTimeMillis());
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            state.setLocationStatus(LOCATION_STATUS_OK);
+            return forecast.size();
 
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            state.setLocationStatus(LOCATION_STATUS_SERVER_INVALID);
+            return 0;
         }
     }
 
@@ -445,7 +454,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         }
     }
 
-    private void notifyWeather() {
+    private void notifyWeather(SyncStateStore state) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -462,10 +471,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+                Uri weatherUri = WeatherContract.CurrentConditionsEntry
+                        .buildCurrentConditionsUri(locationQuery);
 
                 // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                Cursor cursor = context.getContentResolver().query(weatherUri,
+                        NOTIFY_WEATHER_PROJECTION, null, null, null);
 
                 if (cursor.moveToFirst()) {
                     int weatherId = cursor.getInt(INDEX_WEATHER_ID);
@@ -476,7 +487,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
                     int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
 
                     // On Honeycomb and higher devices, we can retrieve the size of the large icon
                     // Prior to that, we use a fixed size
@@ -490,18 +500,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                             : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
 
                     // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                    Bitmap largeIcon = WeatherArtCache.getInstance(context)
+                            .getArt(weatherId, largeIconWidth, largeIconHeight);
+                    if (largeIcon == null && artResourceId != -1) {
                         largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                     }
+                    if (iconId == -1) {
+                        // A condition we have no icon for; the status bar still needs one
+                        iconId = R.mipmap.ic_launcher;
+                    }
                     String title = context.getString(R.string.app_name);
 
                     // Define the text of the forecast.
@@ -543,65 +550,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
 
                     //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
+                    state.setLastNotification(System.currentTimeMillis());
                 }
                 cursor.close();
             }
         }
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
-
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -689,23 +644,33 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         syncImmediately(context);
     }
 
-    public static void initializeSyncAdapter(Context context) {
-        Log.d(WEARABLECONNECTTAG, "syncadapter initialised");
-//        getSyncAccount(context);
-        syncImmediately(context);
+    /**
+     * Points the sync at another OpenWeatherMap compatible server, or back at the real one if
+     * baseUrl is null.  For tests.
+     */
+    static void setForecastBaseUrl(String baseUrl) {
+        sForecastBaseUrl = baseUrl != null ? baseUrl : DEFAULT_FORECAST_BASE_URL;
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     * @param c Context to get the PreferenceManager from.
-     * @param locationStatus The IntDef value to set
+     * @return true if the forecast for the preferred location was synced recently enough that
+     * there's no need to sync again when the app starts.  The periodic sync keeps it current
+     * from there.
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
+    public static boolean isForecastFresh(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long lastSync = prefs.getLong(context.getString(R.string.pref_last_sync), 0);
+        String lastSyncLocation =
+                prefs.getString(context.getString(R.string.pref_last_sync_location), null);
+        long age = System.currentTimeMillis() - lastSync;
+        return age >= 0 && age < FRESH_MILLIS
+                && Utility.getPreferredLocation(context).equals(lastSyncLocation);
+    }
+
+    public static void initializeSyncAdapter(Context context) {
+        Log.d(WEARABLECONNECTTAG, "syncadapter initialised");
+//        getSyncAccount(context);
+        syncImmediately(context);
     }
 
     @Override //ConnectionCallbacks
@@ -747,8 +712,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     Long.toString(System.currentTimeMillis()));
         }
         putDataMapRequest.getDataMap().putString(LOW_TEMP_KEY, sLowTemp);
-        putDataMapRequest.getDataMap().putAsset(IMAGE_TEMP_KEY,
-                Utility.toAsset(getContext(), sWeatherId));
+        Asset icon = Utility.toAsset(getContext(), sWeatherId);
+        if (icon != null) {
+            putDataMapRequest.getDataMap().putAsset(IMAGE_TEMP_KEY, icon);
+        }
         Log.d(WEARABLECONNECTTAG, path + " dataMap to be put as request:  "
                 + putDataMapRequest.getDataMap().toString());
         PutDataRequest request = putDataMapRequest.asPutDataRequest();
@@ -829,7 +796,28 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public void onMessageReceived(MessageEvent event) {
         Log.d(WEARABLECONNECTTAG, "onMessageReceived: " + event);
         Log.d(WEARABLECONNECTTAG, "onMessageReceived: " + "dataItemWithTimeStamp generation");
+        if (sHighTemp.isEmpty() || sLowTemp.isEmpty()) {
+            // The process was restarted since the last sync, reload today from the database
+            loadCurrentConditionsForWear();
+        }
         dataItemGenerate(TIME_STAMP_PATH);
     }
 
+    private void loadCurrentConditionsForWear() {
+        Context context = getContext();
+        Uri weatherUri = WeatherContract.CurrentConditionsEntry.buildCurrentConditionsUri(
+                Utility.getPreferredLocation(context));
+        Cursor cursor = context.getContentResolver().query(weatherUri,
+                NOTIFY_WEATHER_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        if (cursor.moveToFirst()) {
+            sHighTemp = Utility.formatTemperature(context, cursor.getDouble(INDEX_MAX_TEMP));
+            sLowTemp = Utility.formatTemperature(context, cursor.getDouble(INDEX_MIN_TEMP));
+            sWeatherId = cursor.getInt(INDEX_WEATHER_ID);
+        }
+        cursor.close();
+    }
+
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+
+/**
+ * The preferences one sync writes: the location status, the last successful sync and the
+ * last notification.  They're held here while the sync runs and written together by
+ * {@link #flush}, once, at the end of the sync, instead of a commit() each.
+ *
+ * A single editor means the preferences file is rewritten once and either has all of a sync's
+ * state or none of it; a status without the last sync that went with it can't survive a
+ * crash.  The write uses apply(), so the new values are visible straight away and the fsync
+ * happens off the sync thread.
+ */
+class SyncStateStore {
+
+    private final Context mContext;
+
+    private boolean mHasLocationStatus;
+    @SunshineSyncAdapter.LocationStatus
+    private int mLocationStatus;
+    private String mLastSyncLocation;
+    private long mLastSync;
+    private long mLastNotification;
+
+    SyncStateStore(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Only the last status set before {@link #flush} is written.
+     */
+    void setLocationStatus(@SunshineSyncAdapter.LocationStatus int locationStatus) {
+        mHasLocationStatus = true;
+        mLocationStatus = locationStatus;
+    }
+
+    /**
+     * Records a successful sync of the location, at the given time.
+     */
+    void setLastSync(String locationSetting, long timeMillis) {
+        mLastSyncLocation = locationSetting;
+        mLastSync = timeMillis;
+    }
+
+    void setLastNotification(long timeMillis) {
+        mLastNotification = timeMillis;
+    }
+
+    /**
+     * Writes everything set since the last flush in one go.
+     *
+     * @return true if there was anything to write
+     */
+    boolean flush() {
+        if (!mHasLocationStatus && mLastSyncLocation == null && mLastNotification == 0) {
+            return false;
+        }
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        if (mHasLocationStatus) {
+            editor.putInt(mContext.getString(R.string.pref_location_status_key), mLocationStatus);
+        }
+        if (mLastSyncLocation != null) {
+            editor.putLong(mContext.getString(R.string.pref_last_sync), mLastSync);
+            editor.putString(mContext.getString(R.string.pref_last_sync_location),
+                    mLastSyncLocation);
+        }
+        if (mLastNotification != 0) {
+            editor.putLong(mContext.getString(R.string.pref_last_notification), mLastNotification);
+        }
+        editor.apply();
+        if (mHasLocationStatus) {
+            // Whoever started the sync may read the status as soon as it returns
+            SettingsSnapshot.refresh(mContext);
+        }
+
+        mHasLocationStatus = false;
+        mLastSyncLocation = null;
+        mLastNotification = 0;
+        return true;
+    }
+}
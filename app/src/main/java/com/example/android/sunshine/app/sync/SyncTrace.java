@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncStatsEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times the stages of one sync.
+ *
+ * Each stage is a {@link Trace} section, so it shows up in systrace, and a row in the sync
+ * stats table ({@link SyncStatsEntry}) with its duration, bytes and row count.  Rows are held in
+ * memory and written with a single bulkInsert when {@link #flush} is called, so the cost while
+ * syncing is a couple of clock reads per stage.  It stays on in release builds.
+ *
+ * Stages can end on other threads (the wear put runs on an AsyncTask); the start token returned
+ * by {@link #begin} carries what's needed, but the Trace section must end on the thread that
+ * began it.
+ */
+class SyncTrace {
+    private static final String LOG_TAG = "SyncTrace";
+
+    static final String STAGE_DNS = "dns";
+    static final String STAGE_CONNECT = "connect";
+    static final String STAGE_FIRST_BYTE = "first_byte";
+    static final String STAGE_BODY_READ = "body_read";
+    static final String STAGE_PARSE = "parse";
+    static final String STAGE_LOCATION = "location";
+    static final String STAGE_INSERT = "insert";
+    static final String STAGE_RETENTION = "retention";
+    static final String STAGE_INGEST = "ingest";
+    static final String STAGE_SNAPSHOT = "snapshot";
+    static final String STAGE_WIDGETS = "widgets";
+    static final String STAGE_MUZEI = "muzei";
+    static final String STAGE_NOTIFICATION = "notification";
+    static final String STAGE_WEAR_PUT = "wear_put";
+    static final String STAGE_TOTAL = "total";
+
+    private final long mSyncStart = System.currentTimeMillis();
+    private final long mStartNanos = SystemClock.elapsedRealtimeNanos();
+    private final List<ContentValues> mPending = new ArrayList<>();
+
+    /**
+     * Starts a stage on the calling thread.
+     *
+     * @return the start time, to hand back to {@link #end}
+     */
+    long begin(String stage) {
+        Trace.beginSection("Sync." + stage);
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Ends the stage begun with {@link #begin} on this thread and records it.
+     */
+    void end(String stage, long startNanos, long bytes, int rows) {
+        long micros = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000;
+        Trace.endSection();
+        record(stage, micros, bytes, rows);
+    }
+
+    /**
+     * Records a stage that was timed somewhere else, e.g. inside the provider.
+     */
+    synchronized void record(String stage, long micros, long bytes, int rows) {
+        ContentValues values = new ContentValues(5);
+        values.put(SyncStatsEntry.COLUMN_SYNC_START, mSyncStart);
+        values.put(SyncStatsEntry.COLUMN_STAGE, stage);
+        values.put(SyncStatsEntry.COLUMN_DURATION_MICROS, micros);
+        values.put(SyncStatsEntry.COLUMN_BYTES, bytes);
+        values.put(SyncStatsEntry.COLUMN_ROWS, rows);
+        mPending.add(values);
+    }
+
+    /**
+     * Records the whole sync so far as the {@link #STAGE_TOTAL} stage.
+     */
+    void recordTotal(long bytes, int rows) {
+        record(STAGE_TOTAL, (SystemClock.elapsedRealtimeNanos() - mStartNanos) / 1000, bytes, rows);
+    }
+
+    /**
+     * Writes the stages recorded since the last flush.  Does disk I/O, so call it off the UI
+     * thread.
+     */
+    void flush(Context context) {
+        ContentValues[] values;
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            values = mPending.toArray(new ContentValues[mPending.size()]);
+            mPending.clear();
+        }
+        try {
+            context.getContentResolver().bulkInsert(SyncStatsEntry.CONTENT_URI, values);
+        } catch (RuntimeException e) {
+            // Losing the numbers for one sync isn't worth failing it over
+            Log.w(LOG_TAG, "Error recording sync stats", e);
+        }
+    }
+}
@@ -7,6 +7,7 @@ import android.appwidget.AppWidgetProvider;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.v4.app.TaskStackBuilder;
@@ -15,6 +16,7 @@ import android.widget.RemoteViews;
 import com.example.android.sunshine.app.DetailActivity;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -34,9 +36,9 @@ public class DetailWidgetProvider extends AppWidgetProvider {
 
             // Set up the collection
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-                setRemoteAdapter(context, views);
+                setRemoteAdapter(context, views, appWidgetId);
             } else {
-                setRemoteAdapterV11(context, views);
+                setRemoteAdapterV11(context, views, appWidgetId);
             }
             boolean useDetailActivity = context.getResources()
                     .getBoolean(R.bool.use_detail_activity);
@@ -54,6 +56,11 @@ public class DetailWidgetProvider extends AppWidgetProvider {
         }
     }
 
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        Utility.removeWidgetLocations(context, appWidgetIds);
+    }
+
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
@@ -65,15 +72,28 @@ public class DetailWidgetProvider extends AppWidgetProvider {
         }
     }
 
+    /**
+     * @return the intent binding the list of one widget to its own factory, which reads the
+     * location configured for that widget
+     */
+    private Intent getRemoteAdapterIntent(Context context, int appWidgetId) {
+        Intent intent = new Intent(context, DetailWidgetRemoteViewsService.class);
+        intent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
+        // Extras aren't part of Intent.filterEquals(), so put the id in the data as well or
+        // every widget would share the first widget's factory
+        intent.setData(Uri.parse(intent.toUri(Intent.URI_INTENT_SCHEME)));
+        return intent;
+    }
+
     /**
      * Sets the remote adapter used to fill in the list items
      *
      * @param views RemoteViews to set the RemoteAdapter
      */
     @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
-    private void setRemoteAdapter(Context context, @NonNull final RemoteViews views) {
-        views.setRemoteAdapter(R.id.widget_list,
-                new Intent(context, DetailWidgetRemoteViewsService.class));
+    private void setRemoteAdapter(Context context, @NonNull final RemoteViews views,
+                                  int appWidgetId) {
+        views.setRemoteAdapter(R.id.widget_list, getRemoteAdapterIntent(context, appWidgetId));
     }
 
     /**
@@ -82,8 +102,9 @@ public class DetailWidgetProvider extends AppWidgetProvider {
      * @param views RemoteViews to set the RemoteAdapter
      */
     @SuppressWarnings("deprecation")
-    private void setRemoteAdapterV11(Context context, @NonNull final RemoteViews views) {
-        views.setRemoteAdapter(0, R.id.widget_list,
-                new Intent(context, DetailWidgetRemoteViewsService.class));
+    private void setRemoteAdapterV11(Context context, @NonNull final RemoteViews views,
+                                     int appWidgetId) {
+        views.setRemoteAdapter(appWidgetId, R.id.widget_list,
+                getRemoteAdapterIntent(context, appWidgetId));
     }
 }
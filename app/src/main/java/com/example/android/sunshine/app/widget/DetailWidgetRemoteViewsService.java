@@ -1,31 +1,36 @@
 package com.example.android.sunshine.app.widget;
 
 import android.annotation.TargetApi;
+import android.appwidget.AppWidgetManager;
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Parcel;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.widget.AdapterView;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.Target;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.art.WeatherArtCache;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 
-import java.util.concurrent.ExecutionException;
-
 /**
  * RemoteViewsService controlling the data being shown in the scrollable weather detail widget
  */
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     public final String LOG_TAG = DetailWidgetRemoteViewsService.class.getSimpleName();
+    // Log.isLoggable() rejects tags longer than 23 characters, which LOG_TAG is
+    private static final String PARCEL_LOG_TAG = "DetailWidgetParcel";
     private static final String[] FORECAST_COLUMNS = {
             WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
             WeatherContract.WeatherEntry.COLUMN_DATE,
@@ -42,108 +47,231 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     static final int INDEX_WEATHER_MAX_TEMP = 4;
     static final int INDEX_WEATHER_MIN_TEMP = 5;
 
+    /**
+     * Everything the factory binds, read out of the provider in one go.  The arrays are filled
+     * in onDataSetChanged and never touched again, so the cursor can be closed straight away
+     * and getViewAt is just an array read.
+     */
+    private static final class ForecastRows {
+        static final ForecastRows EMPTY = new ForecastRows(0);
+
+        final long[] ids;
+        final int[] iconResourceIds;
+        final Bitmap[] art;
+        final String[] descriptions;
+        final String[] formattedDates;
+        final String[] formattedMaxTemperatures;
+        final String[] formattedMinTemperatures;
+        final Uri[] detailUris;
+
+        ForecastRows(int count) {
+            ids = new long[count];
+            iconResourceIds = new int[count];
+            art = new Bitmap[count];
+            descriptions = new String[count];
+            formattedDates = new String[count];
+            formattedMaxTemperatures = new String[count];
+            formattedMinTemperatures = new String[count];
+            detailUris = new Uri[count];
+        }
+
+        int size() {
+            return ids.length;
+        }
+    }
+
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
+        final int appWidgetId = intent.getIntExtra(AppWidgetManager.EXTRA_APPWIDGET_ID,
+                AppWidgetManager.INVALID_APPWIDGET_ID);
         return new RemoteViewsFactory() {
-            private Cursor data = null;
+            private volatile ForecastRows rows = ForecastRows.EMPTY;
+            private int iconSize;
+            // Parcel size of the rows bound since the last refresh, when debug logging is on
+            private final SparseIntArray parcelBytes = new SparseIntArray();
 
             @Override
             public void onCreate() {
-                // Nothing to do
+                iconSize = getResources().getDimensionPixelSize(R.dimen.list_icon);
             }
 
             @Override
             public void onDataSetChanged() {
-                if (data != null) {
-                    data.close();
+                parcelBytes.clear();
+                String location = Utility.getWidgetLocation(DetailWidgetRemoteViewsService.this,
+                        appWidgetId);
+                // Right after boot the snapshot saves waiting for the database to open
+                ForecastSnapshot forecast =
+                        ForecastSnapshot.read(DetailWidgetRemoteViewsService.this, location);
+                int firstDay = forecast != null ? forecast.indexOfDate(
+                        WeatherContract.normalizeDate(System.currentTimeMillis())) : -1;
+                if (firstDay >= 0) {
+                    rows = readRows(forecast, firstDay, location);
+                    return;
                 }
+
                 // This method is called by the app hosting the widget (e.g., the launcher)
                 // However, our ContentProvider is not exported so it doesn't have access to the
                 // data. Therefore we need to clear (and finally restore) the calling identity so
                 // that calls use our process and permission
                 final long identityToken = Binder.clearCallingIdentity();
-                String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
                 Uri weatherForLocationUri = WeatherContract.WeatherEntry
                         .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
-                data = getContentResolver().query(weatherForLocationUri,
+                Cursor data = getContentResolver().query(weatherForLocationUri,
                         FORECAST_COLUMNS,
                         null,
                         null,
                         WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
                 Binder.restoreCallingIdentity(identityToken);
+                if (data == null) {
+                    rows = ForecastRows.EMPTY;
+                    return;
+                }
+                try {
+                    rows = readRows(data, location);
+                } finally {
+                    data.close();
+                }
+            }
+
+            private ForecastRows readRows(Cursor data, String locationSetting) {
+                Context context = DetailWidgetRemoteViewsService.this;
+                boolean remoteArt = !Utility.usingLocalGraphics(context);
+                // Art decoded at list icon size, by weather condition id.  Rows with the same
+                // condition share one bitmap.
+                SparseArray<Bitmap> artByCondition = new SparseArray<>();
+
+                ForecastRows snapshot = new ForecastRows(data.getCount());
+                for (int i = 0; data.moveToPosition(i); i++) {
+                    int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
+                    long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
+
+                    snapshot.ids[i] = data.getLong(INDEX_WEATHER_ID);
+                    snapshot.iconResourceIds[i] =
+                            Utility.getIconResourceForWeatherCondition(weatherId);
+                    if (remoteArt) {
+                        snapshot.art[i] = getArt(artByCondition, weatherId);
+                    }
+                    snapshot.descriptions[i] = data.getString(INDEX_WEATHER_DESC);
+                    snapshot.formattedDates[i] =
+                            Utility.getFriendlyDayString(context, dateInMillis, false);
+                    snapshot.formattedMaxTemperatures[i] = Utility.formatTemperature(context,
+                            data.getDouble(INDEX_WEATHER_MAX_TEMP));
+                    snapshot.formattedMinTemperatures[i] = Utility.formatTemperature(context,
+                            data.getDouble(INDEX_WEATHER_MIN_TEMP));
+                    snapshot.detailUris[i] = WeatherContract.WeatherEntry
+                            .buildWeatherLocationWithDate(locationSetting, dateInMillis);
+                }
+                return snapshot;
+            }
+
+            private ForecastRows readRows(ForecastSnapshot forecast, int firstDay,
+                                          String locationSetting) {
+                Context context = DetailWidgetRemoteViewsService.this;
+                boolean remoteArt = !Utility.usingLocalGraphics(context);
+                SparseArray<Bitmap> artByCondition = new SparseArray<>();
+
+                ForecastRows snapshot = new ForecastRows(forecast.size() - firstDay);
+                for (int i = 0; i < snapshot.size(); i++) {
+                    int day = firstDay + i;
+                    int weatherId = forecast.getWeatherId(day);
+                    long dateInMillis = forecast.getDate(day);
+
+                    // The snapshot has no row ids; the date is just as unique per location
+                    snapshot.ids[i] = dateInMillis;
+                    snapshot.iconResourceIds[i] =
+                            Utility.getIconResourceForWeatherCondition(weatherId);
+                    if (remoteArt) {
+                        snapshot.art[i] = getArt(artByCondition, weatherId);
+                    }
+                    snapshot.descriptions[i] = forecast.getShortDesc(day);
+                    snapshot.formattedDates[i] =
+                            Utility.getFriendlyDayString(context, dateInMillis, false);
+                    snapshot.formattedMaxTemperatures[i] =
+                            Utility.formatTemperature(context, forecast.getMaxTemp(day));
+                    snapshot.formattedMinTemperatures[i] =
+                            Utility.formatTemperature(context, forecast.getMinTemp(day));
+                    snapshot.detailUris[i] = WeatherContract.WeatherEntry
+                            .buildWeatherLocationWithDate(locationSetting, dateInMillis);
+                }
+                return snapshot;
+            }
+
+            private Bitmap getArt(SparseArray<Bitmap> artByCondition, int weatherId) {
+                Bitmap art = artByCondition.get(weatherId);
+                if (art == null) {
+                    // Decode at the size the list item shows it; every bitmap set here is
+                    // parcelled to the launcher, so anything bigger is wasted Binder traffic
+                    art = WeatherArtCache.getInstance(DetailWidgetRemoteViewsService.this)
+                            .getArt(weatherId, iconSize, iconSize);
+                    artByCondition.put(weatherId, art);
+                }
+                return art;
             }
 
             @Override
             public void onDestroy() {
-                if (data != null) {
-                    data.close();
-                    data = null;
-                }
+                rows = ForecastRows.EMPTY;
             }
 
             @Override
             public int getCount() {
-                return data == null ? 0 : data.getCount();
+                return rows.size();
             }
 
             @Override
             public RemoteViews getViewAt(int position) {
+                final ForecastRows snapshot = rows;
                 if (position == AdapterView.INVALID_POSITION ||
-                        data == null || !data.moveToPosition(position)) {
+                        position < 0 || position >= snapshot.size()) {
                     return null;
                 }
                 RemoteViews views = new RemoteViews(getPackageName(),
                         R.layout.widget_detail_list_item);
-                int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
-                int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
-                Bitmap weatherArtImage = null;
-                if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
-                    String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
-                            DetailWidgetRemoteViewsService.this, weatherId);
-                    try {
-                        weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
-                                .load(weatherArtResourceUrl)
-                                .asBitmap()
-                                .error(weatherArtResourceId)
-                                .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
-                    }
-                }
-                String description = data.getString(INDEX_WEATHER_DESC);
-                long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
-                String formattedDate = Utility.getFriendlyDayString(
-                        DetailWidgetRemoteViewsService.this, dateInMillis, false);
-                double maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
-                double minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
-                String formattedMaxTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, maxTemp);
-                String formattedMinTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, minTemp);
-                if (weatherArtImage != null) {
-                    views.setImageViewBitmap(R.id.widget_icon, weatherArtImage);
+                String description = snapshot.descriptions[position];
+                if (snapshot.art[position] != null) {
+                    views.setImageViewBitmap(R.id.widget_icon, snapshot.art[position]);
                 } else {
-                    views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+                    views.setImageViewResource(R.id.widget_icon,
+                            snapshot.iconResourceIds[position]);
                 }
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
                     setRemoteContentDescription(views, description);
                 }
-                views.setTextViewText(R.id.widget_date, formattedDate);
+                views.setTextViewText(R.id.widget_date, snapshot.formattedDates[position]);
                 views.setTextViewText(R.id.widget_description, description);
-                views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
-                views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+                views.setTextViewText(R.id.widget_high_temperature,
+                        snapshot.formattedMaxTemperatures[position]);
+                views.setTextViewText(R.id.widget_low_temperature,
+                        snapshot.formattedMinTemperatures[position]);
 
                 final Intent fillInIntent = new Intent();
-                String locationSetting =
-                        Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
-                        locationSetting,
-                        dateInMillis);
-                fillInIntent.setData(weatherUri);
+                fillInIntent.setData(snapshot.detailUris[position]);
                 views.setOnClickFillInIntent(R.id.widget_list_item, fillInIntent);
+                if (Log.isLoggable(PARCEL_LOG_TAG, Log.DEBUG)) {
+                    reportParcelBytes(position, views, snapshot.size());
+                }
                 return views;
             }
 
+            private void reportParcelBytes(int position, RemoteViews views, int count) {
+                Parcel parcel = Parcel.obtain();
+                try {
+                    views.writeToParcel(parcel, 0);
+                    parcelBytes.put(position, parcel.dataSize());
+                } finally {
+                    parcel.recycle();
+                }
+                if (parcelBytes.size() == count) {
+                    int total = 0;
+                    for (int i = 0; i < parcelBytes.size(); i++) {
+                        total += parcelBytes.valueAt(i);
+                    }
+                    Log.d(PARCEL_LOG_TAG, "Detail widget refresh: " + parcelBytes.size() + " rows, " +
+                            total + " bytes parcelled");
+                }
+            }
+
             @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
             private void setRemoteContentDescription(RemoteViews views, String description) {
                 views.setContentDescription(R.id.widget_icon, description);
@@ -161,8 +289,9 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public long getItemId(int position) {
-                if (data.moveToPosition(position))
-                    return data.getLong(INDEX_WEATHER_ID);
+                final ForecastRows snapshot = rows;
+                if (position >= 0 && position < snapshot.size())
+                    return snapshot.ids[position];
                 return position;
             }
 
@@ -20,77 +20,102 @@ import android.app.IntentService;
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
 /**
- * IntentService which handles updating all Today widgets with the latest data
+ * IntentService which handles updating all Today widgets with the latest data.  Each widget
+ * shows the location configured for it, or the preferred location.
  */
 public class TodayWidgetIntentService extends IntentService {
+    private static final String LOG_TAG = "TodayWidgetService";
     private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+            WeatherContract.CurrentConditionsEntry.COLUMN_WEATHER_ID,
+            WeatherContract.CurrentConditionsEntry.COLUMN_SHORT_DESC,
+            WeatherContract.CurrentConditionsEntry.COLUMN_MAX_TEMP,
+            WeatherContract.CurrentConditionsEntry.COLUMN_MIN_TEMP,
+            WeatherContract.CurrentConditionsEntry.COLUMN_LOCATION_SETTING
     };
     // these indices must match the projection
     private static final int INDEX_WEATHER_ID = 0;
     private static final int INDEX_SHORT_DESC = 1;
     private static final int INDEX_MAX_TEMP = 2;
     private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_LOCATION_SETTING = 4;
+
+    /**
+     * Today's weather for one location, already formatted for display.
+     */
+    static final class TodayConditions {
+        final int weatherArtResourceId;
+        final String description;
+        final String formattedMaxTemperature;
+        final String formattedMinTemperature;
+
+        TodayConditions(int weatherArtResourceId, String description,
+                        String formattedMaxTemperature, String formattedMinTemperature) {
+            this.weatherArtResourceId = weatherArtResourceId;
+            this.description = description;
+            this.formattedMaxTemperature = formattedMaxTemperature;
+            this.formattedMinTemperature = formattedMinTemperature;
+        }
+    }
 
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
     }
 
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        WidgetUpdateCoordinator.onRequest();
+        return super.onStartCommand(intent, flags, startId);
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
+        // Let a burst of update requests settle and only render for the last one
+        if (!WidgetUpdateCoordinator.awaitQuiet()) {
+            return;
+        }
+
         // Retrieve all of the Today widget ids: these are the widgets we need to update
         AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
 
-        // Get today's data from the ContentProvider
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
-            return;
-        }
-        if (!data.moveToFirst()) {
-            data.close();
-            return;
-        }
+        // Get today's data for every widget from the ContentProvider
+        SparseArray<TodayConditions> conditionsByWidget =
+                loadConditionsForWidgets(this, appWidgetIds);
 
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
-        int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
+        // These are the same for every widget, so resolve them once
+        int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+        PendingIntent pendingIntent = null;
 
         // Perform this loop procedure for each Today widget
         for (int appWidgetId : appWidgetIds) {
             // Find the correct layout based on the widget's width
             int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
-            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
-            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
             int layoutId;
             if (widgetWidth >= largeWidth) {
                 layoutId = R.layout.widget_today_large;
@@ -99,26 +124,141 @@ public class TodayWidgetIntentService extends IntentService {
             } else {
                 layoutId = R.layout.widget_today_small;
             }
-            RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+            TodayConditions conditions = conditionsByWidget.get(appWidgetId);
+            if (conditions == null) {
+                // Nothing synced for this widget's location yet; leave it as it is
+                continue;
+            }
+            int weatherArtResourceId = conditions.weatherArtResourceId;
+            WidgetUpdateCoordinator.WidgetState state = new WidgetUpdateCoordinator.WidgetState(
+                    layoutId, weatherArtResourceId, conditions.description,
+                    conditions.formattedMaxTemperature, conditions.formattedMinTemperature);
+
+            switch (WidgetUpdateCoordinator.classify(appWidgetId, state)) {
+                case WidgetUpdateCoordinator.UPDATE_SKIP:
+                    continue;
+                case WidgetUpdateCoordinator.UPDATE_PARTIAL: {
+                    // Only the text changed; the layout, icon and click intent are already there
+                    RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+                    setText(views, state);
+                    appWidgetManager.partiallyUpdateAppWidget(appWidgetId, views);
+                    break;
+                }
+                default: {
+                    RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+
+                    // Add the data to the RemoteViews
+                    views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+                    setText(views, state);
+
+                    // Create an Intent to launch MainActivity
+                    if (pendingIntent == null) {
+                        Intent launchIntent = new Intent(this, MainActivity.class);
+                        pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
+                    }
+                    views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+
+                    // Tell the AppWidgetManager to perform an update on the current app widget
+                    appWidgetManager.updateAppWidget(appWidgetId, views);
+                }
+            }
+            WidgetUpdateCoordinator.onRendered(appWidgetId, state);
+        }
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, "Today widget updates: " + WidgetUpdateCoordinator.getFullCount() +
+                    " full, " + WidgetUpdateCoordinator.getPartialCount() + " partial, " +
+                    WidgetUpdateCoordinator.getSkippedCount() + " skipped");
+        }
+    }
+
+    /**
+     * Reads today's conditions for the locations shown by a set of widgets.  Locations with a
+     * forecast snapshot are read from it; the rest, however many widgets and locations there
+     * are, take a single provider query.
+     *
+     * @return the conditions for each widget id, missing for widgets whose location has no data
+     */
+    static SparseArray<TodayConditions> loadConditionsForWidgets(Context context,
+                                                                 int[] appWidgetIds) {
+        SparseArray<TodayConditions> conditionsByWidget = new SparseArray<>();
+        if (appWidgetIds.length == 0) {
+            return conditionsByWidget;
+        }
+        String[] widgetLocations = new String[appWidgetIds.length];
+        Set<String> locations = new LinkedHashSet<>();
+        for (int i = 0; i < appWidgetIds.length; i++) {
+            widgetLocations[i] = Utility.getWidgetLocation(context, appWidgetIds[i]);
+            locations.add(widgetLocations[i]);
+        }
+
+        Map<String, TodayConditions> conditionsByLocation = new HashMap<>();
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (Iterator<String> it = locations.iterator(); it.hasNext(); ) {
+            String location = it.next();
+            ForecastSnapshot snapshot = ForecastSnapshot.read(context, location);
+            int day = snapshot != null ? snapshot.indexOfDate(today) : -1;
+            if (day >= 0) {
+                int weatherId = snapshot.getWeatherId(day);
+                conditionsByLocation.put(location, new TodayConditions(
+                        Utility.getArtResourceForWeatherCondition(weatherId),
+                        snapshot.getShortDesc(day),
+                        Utility.formatTemperature(context, snapshot.getMaxTemp(day)),
+                        Utility.formatTemperature(context, snapshot.getMinTemp(day))));
+                it.remove();
+            }
+        }
+        if (!locations.isEmpty()) {
+            queryConditions(context, locations, conditionsByLocation);
+        }
 
-            // Add the data to the RemoteViews
-            views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
-            // Content Descriptions for RemoteViews were only added in ICS MR1
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-                setRemoteContentDescription(views, description);
+        for (int i = 0; i < appWidgetIds.length; i++) {
+            TodayConditions conditions = conditionsByLocation.get(widgetLocations[i]);
+            if (conditions != null) {
+                conditionsByWidget.put(appWidgetIds[i], conditions);
             }
-            views.setTextViewText(R.id.widget_description, description);
-            views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
-            views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+        }
+        return conditionsByWidget;
+    }
+
+    private static void queryConditions(Context context, Set<String> locations,
+                                        Map<String, TodayConditions> conditionsByLocation) {
+        // location_setting IN (?, ?, ...)
+        StringBuilder selection = new StringBuilder(
+                WeatherContract.CurrentConditionsEntry.COLUMN_LOCATION_SETTING).append(" IN (");
+        for (int i = 0; i < locations.size(); i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+        }
+        selection.append(')');
 
-            // Create an Intent to launch MainActivity
-            Intent launchIntent = new Intent(this, MainActivity.class);
-            PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
-            views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+        Cursor data = context.getContentResolver().query(
+                WeatherContract.CurrentConditionsEntry.CONTENT_URI, FORECAST_COLUMNS,
+                selection.toString(), locations.toArray(new String[locations.size()]), null);
+        if (data == null) {
+            return;
+        }
+        try {
+            while (data.moveToNext()) {
+                int weatherId = data.getInt(INDEX_WEATHER_ID);
+                conditionsByLocation.put(data.getString(INDEX_LOCATION_SETTING),
+                        new TodayConditions(
+                                Utility.getArtResourceForWeatherCondition(weatherId),
+                                data.getString(INDEX_SHORT_DESC),
+                                Utility.formatTemperature(context, data.getDouble(INDEX_MAX_TEMP)),
+                                Utility.formatTemperature(context, data.getDouble(INDEX_MIN_TEMP))));
+            }
+        } finally {
+            data.close();
+        }
+    }
 
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+    private void setText(RemoteViews views, WidgetUpdateCoordinator.WidgetState state) {
+        // Content Descriptions for RemoteViews were only added in ICS MR1
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+            setRemoteContentDescription(views, state.description);
         }
+        views.setTextViewText(R.id.widget_description, state.description);
+        views.setTextViewText(R.id.widget_high_temperature, state.high);
+        views.setTextViewText(R.id.widget_low_temperature, state.low);
     }
 
     private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
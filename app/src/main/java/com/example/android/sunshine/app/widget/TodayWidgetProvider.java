@@ -22,6 +22,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 
+import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -34,6 +35,8 @@ public class TodayWidgetProvider extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        // The host is asking for these widgets to be drawn, so don't let the update be skipped
+        WidgetUpdateCoordinator.forget(appWidgetIds);
         context.startService(new Intent(context, TodayWidgetIntentService.class));
     }
 
@@ -43,6 +46,12 @@ public class TodayWidgetProvider extends AppWidgetProvider {
         context.startService(new Intent(context, TodayWidgetIntentService.class));
     }
 
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        WidgetUpdateCoordinator.forget(appWidgetIds);
+        Utility.removeWidgetLocations(context, appWidgetIds);
+    }
+
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which Today widget updates are worth sending to the launcher.
+ *
+ * A sync, a settings change and the widget host can all ask for an update within a few hundred
+ * milliseconds of each other.  Requests are debounced so one burst renders once, and each
+ * widget's last rendered state is remembered so an update that wouldn't change anything on
+ * screen is skipped, and one that only changes text goes out as a partial update.
+ */
+class WidgetUpdateCoordinator {
+
+    // How long to wait for the burst of requests to settle
+    static final long DEBOUNCE_MILLIS = 300;
+
+    /** The outcome of {@link #classify} for one widget. */
+    static final int UPDATE_SKIP = 0;
+    static final int UPDATE_PARTIAL = 1;
+    static final int UPDATE_FULL = 2;
+
+    private static final AtomicInteger sPendingRequests = new AtomicInteger();
+    private static volatile long sLastRequestTime;
+
+    // Last state sent to each widget id
+    private static final SparseArray<WidgetState> sRenderedStates = new SparseArray<>();
+
+    private static final AtomicInteger sSkipped = new AtomicInteger();
+    private static final AtomicInteger sPartial = new AtomicInteger();
+    private static final AtomicInteger sFull = new AtomicInteger();
+
+    /**
+     * What a Today widget shows.  Two states with the same layout and icon differ only in text.
+     */
+    static final class WidgetState {
+        final int layoutId;
+        final int iconResourceId;
+        final String description;
+        final String high;
+        final String low;
+        private final int mHash;
+
+        WidgetState(int layoutId, int iconResourceId, String description, String high,
+                    String low) {
+            this.layoutId = layoutId;
+            this.iconResourceId = iconResourceId;
+            this.description = description;
+            this.high = high;
+            this.low = low;
+            mHash = Arrays.hashCode(new Object[]{layoutId, iconResourceId, description, high, low});
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof WidgetState)) return false;
+            WidgetState other = (WidgetState) o;
+            return mHash == other.mHash
+                    && layoutId == other.layoutId
+                    && iconResourceId == other.iconResourceId
+                    && description.equals(other.description)
+                    && high.equals(other.high)
+                    && low.equals(other.low);
+        }
+    }
+
+    private WidgetUpdateCoordinator() {
+    }
+
+    /**
+     * Records an update request.  Called for every intent delivered to the update service.
+     */
+    static void onRequest() {
+        sLastRequestTime = SystemClock.elapsedRealtime();
+        sPendingRequests.incrementAndGet();
+    }
+
+    /**
+     * Waits until no request has arrived for {@link #DEBOUNCE_MILLIS}, then consumes one
+     * request.
+     *
+     * @return true if this was the last request of the burst and should render; false if a
+     * later request is already queued and will do the work.
+     */
+    static boolean awaitQuiet() {
+        long wait;
+        while ((wait = sLastRequestTime + DEBOUNCE_MILLIS - SystemClock.elapsedRealtime()) > 0) {
+            SystemClock.sleep(wait);
+        }
+        return sPendingRequests.decrementAndGet() <= 0;
+    }
+
+    /**
+     * Compares a widget's new state with the last one sent to it.
+     *
+     * @return {@link #UPDATE_SKIP} if nothing changed, {@link #UPDATE_PARTIAL} if only the text
+     * changed, {@link #UPDATE_FULL} otherwise.
+     */
+    static int classify(int appWidgetId, WidgetState state) {
+        WidgetState previous;
+        synchronized (sRenderedStates) {
+            previous = sRenderedStates.get(appWidgetId);
+        }
+        if (state.equals(previous)) {
+            sSkipped.incrementAndGet();
+            return UPDATE_SKIP;
+        }
+        if (previous != null && previous.layoutId == state.layoutId
+                && previous.iconResourceId == state.iconResourceId) {
+            sPartial.incrementAndGet();
+            return UPDATE_PARTIAL;
+        }
+        sFull.incrementAndGet();
+        return UPDATE_FULL;
+    }
+
+    /**
+     * Remembers the state after it has been handed to the AppWidgetManager.
+     */
+    static void onRendered(int appWidgetId, WidgetState state) {
+        synchronized (sRenderedStates) {
+            sRenderedStates.put(appWidgetId, state);
+        }
+    }
+
+    /**
+     * Forgets deleted widgets, so a recycled id starts with a full update.
+     */
+    static void forget(int[] appWidgetIds) {
+        synchronized (sRenderedStates) {
+            for (int appWidgetId : appWidgetIds) {
+                sRenderedStates.remove(appWidgetId);
+            }
+        }
+    }
+
+    static int getSkippedCount() {
+        return sSkipped.get();
+    }
+
+    static int getPartialCount() {
+        return sPartial.get();
+    }
+
+    static int getFullCount() {
+        return sFull.get();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmark;
+
+import com.example.android.sunshine.core.CityIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building, loading and searching a city index the size of a full gazetteer, about 200k
+ * names.  The names are made up, but with real names' lengths and a share of accents, which
+ * take the slow path in the search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class CityIndexBenchmark {
+
+    private static final int CITIES = 200 * 1000;
+    private static final int SUGGESTIONS = 5;
+    private static final int PREFIXES = 1024;
+
+    private static final String[] SYLLABLES = {
+            "an", "ber", "burg", "ca", "del", "do", "el", "field", "fort", "ga", "ham", "ka",
+            "la", "lin", "ma", "mont", "na", "ne", "o", "pol", "port", "ri", "ro", "san",
+            "sk", "ta", "ton", "u", "ville", "wa", "y", "za", "\u00e9", "\u00f6", "\u00fc"
+    };
+    private static final String[] COUNTRIES = {
+            "AR", "AU", "BR", "CA", "CN", "DE", "ES", "FR", "GB", "IN", "IT", "JP", "MX", "PL",
+            "RU", "SE", "US"
+    };
+
+    private List<String> mCities;
+    private File mFile;
+    private CityIndex mIndex;
+    private String[] mPrefixes;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        mCities = new ArrayList<>(CITIES);
+        for (int i = 0; i < CITIES; i++) {
+            StringBuilder city = new StringBuilder();
+            int syllables = 3 + random.nextInt(4);
+            for (int s = 0; s < syllables; s++) {
+                city.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            city.setCharAt(0, Character.toUpperCase(city.charAt(0)));
+            city.append(',').append(COUNTRIES[random.nextInt(COUNTRIES.length)]);
+            mCities.add(city.toString());
+        }
+
+        mFile = File.createTempFile("cities", ".idx");
+        OutputStream out = new FileOutputStream(mFile);
+        try {
+            CityIndex.write(mCities, out);
+        } finally {
+            out.close();
+        }
+        mIndex = load();
+
+        // What's typed: the first few letters of a real name, sometimes without its accents
+        mPrefixes = new String[PREFIXES];
+        for (int i = 0; i < mPrefixes.length; i++) {
+            String city = mCities.get(random.nextInt(mCities.size()));
+            String prefix = city.substring(0, Math.min(city.length(), 1 + random.nextInt(6)));
+            mPrefixes[i] = random.nextBoolean() ? prefix : CityIndex.fold(prefix);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private CityIndex load() throws IOException {
+        RandomAccessFile in = new RandomAccessFile(mFile, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            return CityIndex.load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void build(Blackhole blackhole) {
+        blackhole.consume(CityIndex.build(mCities));
+    }
+
+    @Benchmark
+    public void load(Blackhole blackhole) throws IOException {
+        blackhole.consume(load());
+    }
+
+    /**
+     * Reported per search, which is what each keystroke costs.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PREFIXES)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void search(Blackhole blackhole) {
+        for (String prefix : mPrefixes) {
+            blackhole.consume(mIndex.search(prefix, SUGGESTIONS));
+        }
+    }
+}
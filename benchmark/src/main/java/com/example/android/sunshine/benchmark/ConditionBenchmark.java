@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmark;
+
+import com.example.android.sunshine.core.WeatherConditions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping condition ids to art buckets, over a spread of ids like a two week forecast list
+ * binds while scrolling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class ConditionBenchmark {
+
+    private static final int[] OWM_IDS = {
+            200, 201, 202, 210, 211, 212, 221, 230, 231, 232,
+            300, 301, 302, 310, 311, 312, 313, 314, 321,
+            500, 501, 502, 503, 504, 511, 520, 521, 522, 531,
+            600, 601, 602, 611, 612, 615, 616, 620, 621, 622,
+            701, 711, 721, 731, 741, 751, 761, 762, 771, 781,
+            800, 801, 802, 803, 804,
+            900, 951
+    };
+
+    private int[] mWeatherIds;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mWeatherIds = new int[1024];
+        for (int i = 0; i < mWeatherIds.length; i++) {
+            mWeatherIds[i] = OWM_IDS[random.nextInt(OWM_IDS.length)];
+        }
+    }
+
+    @Benchmark
+    public void getBucket(Blackhole blackhole) {
+        for (int weatherId : mWeatherIds) {
+            blackhole.consume(WeatherConditions.getBucket(weatherId));
+        }
+    }
+
+    @Benchmark
+    public void getArtName(Blackhole blackhole) {
+        for (int weatherId : mWeatherIds) {
+            blackhole.consume(WeatherConditions.getArtName(WeatherConditions.getBucket(weatherId)));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmark;
+
+import com.example.android.sunshine.core.WeatherFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting temperatures and wind the way the forecast list and detail screens do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class FormatBenchmark {
+
+    // The app's format_temperature and format_wind_kmh strings
+    private static final String TEMPERATURE_FORMAT = "%1.0f\u00B0";
+    private static final String WIND_FORMAT = "%1$1.0f km/h %2$s";
+
+    @Param({"true", "false"})
+    public boolean metric;
+
+    // Not final, so the JIT can't fold the arguments
+    public double celsius = 21.85;
+    public float windSpeed = 3.87f;
+    public float degrees = 196;
+
+    @Benchmark
+    public String formatTemperature() {
+        return WeatherFormat.formatTemperature(TEMPERATURE_FORMAT, celsius, metric);
+    }
+
+    @Benchmark
+    public String formatWind() {
+        return WeatherFormat.formatWind(WIND_FORMAT, windSpeed, degrees, metric);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmark;
+
+import com.example.android.sunshine.core.ForecastJsonParser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a daily forecast response, for the day counts the app asks for.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class ParseBenchmark {
+
+    @Param({"1", "7", "14", "16"})
+    public int days;
+
+    private String mJson;
+
+    @Setup
+    public void setUp() throws JSONException {
+        mJson = forecastJson(days, 42);
+    }
+
+    @Benchmark
+    public ForecastJsonParser.Forecast parse() throws JSONException {
+        return ForecastJsonParser.parse(mJson);
+    }
+
+    /**
+     * @return a response in OWM's daily forecast format; the same seed gives the same response
+     */
+    static String forecastJson(int days, long seed) throws JSONException {
+        Random random = new Random(seed);
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < days; i++) {
+            double min = -10 + random.nextInt(300) / 10.0;
+            list.put(new JSONObject()
+                    .put("dt", 1445976000L + i * 86400L)
+                    .put("temp", new JSONObject()
+                            .put("day", min + 5)
+                            .put("min", min)
+                            .put("max", min + random.nextInt(150) / 10.0)
+                            .put("night", min + 1)
+                            .put("eve", min + 4)
+                            .put("morn", min + 2))
+                    .put("pressure", 990 + random.nextInt(400) / 10.0)
+                    .put("humidity", 20 + random.nextInt(80))
+                    .put("weather", new JSONArray().put(new JSONObject()
+                            .put("id", 800 + random.nextInt(5))
+                            .put("main", "Clouds")
+                            .put("description", "scattered clouds")
+                            .put("icon", "03d")))
+                    .put("speed", random.nextInt(200) / 10.0)
+                    .put("deg", random.nextInt(360))
+                    .put("clouds", random.nextInt(100)));
+        }
+        return new JSONObject()
+                .put("city", new JSONObject()
+                        .put("id", 5375480)
+                        .put("name", "Mountain View")
+                        .put("coord", new JSONObject()
+                                .put("lon", -122.083847)
+                                .put("lat", 37.386051))
+                        .put("country", "US"))
+                .put("cod", "200")
+                .put("message", 0.0118)
+                .put("cnt", days)
+                .put("list", list)
+                .toString();
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Prefix search over city names, as a sorted packed array meant to be memory-mapped.
+ *
+ * The names are sorted by their search key ({@link #fold}: lower case, accents dropped) and
+ * stored back to back as UTF-8, with an offset table in front:
+ *
+ * <pre>
+ *   int magic, int version, int count, int dataSize
+ *   int offsets[count + 1]    start of each name in the data
+ *   byte data[dataSize]       the names, UTF-8
+ * </pre>
+ *
+ * A lookup is a binary search for the first name at or after the prefix, then a walk forward
+ * while names still match; nothing is decoded apart from the probes and the results, and
+ * nothing is read into the heap up front, so loading is just mapping the file.
+ */
+public final class CityIndex {
+
+    private static final int MAGIC = 0x43494458; // "CIDX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+    private final int mOffsetsStart;
+    private final int mDataStart;
+
+    private CityIndex(ByteBuffer buffer, int count, int offsetsStart, int dataStart) {
+        mBuffer = buffer;
+        mCount = count;
+        mOffsetsStart = offsetsStart;
+        mDataStart = dataStart;
+    }
+
+    /**
+     * Wraps an index written by {@link #write}, usually a mapped file.  Only the header is
+     * read; the buffer must not change afterwards.
+     *
+     * @throws IllegalArgumentException if the buffer doesn't hold an index
+     */
+    public static CityIndex load(ByteBuffer buffer) {
+        ByteBuffer index = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int base = index.position();
+        if (index.remaining() < HEADER_BYTES || index.getInt(base) != MAGIC) {
+            throw new IllegalArgumentException("Not a city index");
+        }
+        if (index.getInt(base + 4) != VERSION) {
+            throw new IllegalArgumentException("Unknown city index version " +
+                    index.getInt(base + 4));
+        }
+        int count = index.getInt(base + 8);
+        int dataSize = index.getInt(base + 12);
+        int offsetsStart = base + HEADER_BYTES;
+        int dataStart = offsetsStart + (count + 1) * 4;
+        if (count < 0 || dataSize < 0 || (long) dataStart + dataSize > index.limit()) {
+            throw new IllegalArgumentException("Truncated city index");
+        }
+        return new CityIndex(index, count, offsetsStart, dataStart);
+    }
+
+    /**
+     * Sorts the names and writes them out as an index.  Blank names and duplicates are
+     * dropped.
+     *
+     * @return the number of bytes written
+     */
+    public static int write(Collection<String> names, OutputStream out) throws IOException {
+        final List<String> sorted = new ArrayList<>(names.size());
+        final List<String> keys = new ArrayList<>(names.size());
+        List<Integer> order = new ArrayList<>(names.size());
+        for (String name : names) {
+            String trimmed = name.trim();
+            if (!trimmed.isEmpty()) {
+                order.add(sorted.size());
+                sorted.add(trimmed);
+                keys.add(fold(trimmed));
+            }
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                int byKey = keys.get(lhs).compareTo(keys.get(rhs));
+                return byKey != 0 ? byKey : sorted.get(lhs).compareTo(sorted.get(rhs));
+            }
+        });
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        List<Integer> offsets = new ArrayList<>(order.size() + 1);
+        String previous = null;
+        for (int i : order) {
+            String name = sorted.get(i);
+            if (name.equals(previous)) {
+                continue;
+            }
+            offsets.add(data.size());
+            byte[] bytes = name.getBytes(UTF_8);
+            data.write(bytes, 0, bytes.length);
+            previous = name;
+        }
+        int count = offsets.size();
+        offsets.add(data.size());
+
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(count);
+        header.writeInt(data.size());
+        for (int offset : offsets) {
+            header.writeInt(offset);
+        }
+        data.writeTo(header);
+        header.flush();
+        return HEADER_BYTES + offsets.size() * 4 + data.size();
+    }
+
+    /**
+     * @return the names packed into an index, for tests and benchmarks
+     */
+    public static CityIndex build(Collection<String> names) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(names, out);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return load(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    /**
+     * @return the search key for a name or a prefix: lower case, without accents
+     */
+    public static String fold(CharSequence text) {
+        boolean ascii = true;
+        for (int i = 0; i < text.length() && ascii; i++) {
+            ascii = text.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            return text.toString().toLowerCase(Locale.ROOT);
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder key = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                key.append(c);
+            }
+        }
+        return key.toString().toLowerCase(Locale.ROOT);
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @return the name at a position in search key order
+     */
+    public String get(int position) {
+        int start = offset(position);
+        int length = offset(position + 1) - start;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(mDataStart + start + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * @return up to limit names starting with the prefix, ignoring case and accents, in
+     * alphabetical order
+     */
+    public List<String> search(String prefix, int limit) {
+        String key = fold(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<String> results = new ArrayList<>(Math.min(limit, 16));
+        for (int i = lowerBound(key); i < mCount && results.size() < limit; i++) {
+            if (compareToPrefix(i, key) != 0) {
+                break;
+            }
+            results.add(get(i));
+        }
+        return results;
+    }
+
+    /**
+     * @return the position of the first name whose key isn't before the folded prefix
+     */
+    int lowerBound(String key) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareToPrefix(mid, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares a name's key with a folded prefix, looking at no more of the name than the
+     * prefix is long.
+     *
+     * @return 0 if the name starts with the prefix, otherwise the order of the two
+     */
+    private int compareToPrefix(int position, String key) {
+        int start = mDataStart + offset(position);
+        int end = mDataStart + offset(position + 1);
+        int i = 0;
+        for (int p = start; p < end && i < key.length(); p++, i++) {
+            int b = mBuffer.get(p) & 0xff;
+            if (b >= 0x80) {
+                // Not plain ASCII; fold the rest of the name properly
+                return compareFolded(fold(get(position)), key);
+            }
+            char c = (b >= 'A' && b <= 'Z') ? (char) (b + ('a' - 'A')) : (char) b;
+            if (c != key.charAt(i)) {
+                return c < key.charAt(i) ? -1 : 1;
+            }
+        }
+        return i == key.length() ? 0 : -1;
+    }
+
+    private static int compareFolded(String name, String key) {
+        int length = Math.min(name.length(), key.length());
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            if (c != key.charAt(i)) {
+                return c < key.charAt(i) ? -1 : 1;
+            }
+        }
+        return name.length() >= key.length() ? 0 : -1;
+    }
+
+    private int offset(int position) {
+        return mBuffer.getInt(mOffsetsStart + position * 4);
+    }
+}
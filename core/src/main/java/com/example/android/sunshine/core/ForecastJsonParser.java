@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Parses OpenWeatherMap's daily forecast JSON into parallel arrays, one entry per day.
+ *
+ * Days carry no dates: OWM returns them in order starting with today in the city's local time,
+ * so the caller numbers them from today's Julian day.
+ */
+public final class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /** The message code of a response that has a forecast. */
+    public static final int CODE_OK = 200;
+
+    /**
+     * A parsed forecast.  If {@link #code} isn't {@link #CODE_OK} the rest is empty.
+     */
+    public static final class Forecast {
+        public final int code;
+        public final String cityName;
+        public final double cityLatitude;
+        public final double cityLongitude;
+
+        public final int[] weatherIds;
+        public final String[] descriptions;
+        public final double[] minTemps;
+        public final double[] maxTemps;
+        public final int[] humidities;
+        public final double[] pressures;
+        public final double[] windSpeeds;
+        public final double[] windDirections;
+
+        Forecast(int code, String cityName, double cityLatitude, double cityLongitude, int days) {
+            this.code = code;
+            this.cityName = cityName;
+            this.cityLatitude = cityLatitude;
+            this.cityLongitude = cityLongitude;
+            weatherIds = new int[days];
+            descriptions = new String[days];
+            minTemps = new double[days];
+            maxTemps = new double[days];
+            humidities = new int[days];
+            pressures = new double[days];
+            windSpeeds = new double[days];
+            windDirections = new double[days];
+        }
+
+        public int size() {
+            return weatherIds.length;
+        }
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * @throws JSONException if the response isn't a forecast or an error in OWM's format
+     */
+    public static Forecast parse(String forecastJsonStr) throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int code = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (code != CODE_OK) {
+                return new Forecast(code, null, 0, 0, 0);
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        Forecast forecast = new Forecast(CODE_OK, cityJson.getString(OWM_CITY_NAME),
+                cityCoord.getDouble(OWM_LATITUDE), cityCoord.getDouble(OWM_LONGITUDE),
+                weatherArray.length());
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            forecast.pressures[i] = dayForecast.getDouble(OWM_PRESSURE);
+            forecast.humidities[i] = dayForecast.getInt(OWM_HUMIDITY);
+            forecast.windSpeeds[i] = dayForecast.getDouble(OWM_WINDSPEED);
+            forecast.windDirections[i] = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject = dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            forecast.descriptions[i] = weatherObject.getString(OWM_DESCRIPTION);
+            forecast.weatherIds[i] = weatherObject.getInt(OWM_WEATHER_ID);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            forecast.maxTemps[i] = temperatureObject.getDouble(OWM_MAX);
+            forecast.minTemps[i] = temperatureObject.getDouble(OWM_MIN);
+        }
+        return forecast;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Julian day arithmetic, the same as android.text.format.Time's getJulianDay and setJulianDay
+ * but without the Android dependency.
+ */
+public final class JulianDay {
+
+    // The Julian day of January 1, 1970
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private JulianDay() {
+    }
+
+    /**
+     * @param millis a time in milliseconds since the epoch
+     * @param gmtoffSeconds the offset from UTC of the time zone the day is counted in
+     * @return the Julian day the time falls in
+     */
+    public static int fromMillis(long millis, long gmtoffSeconds) {
+        return (int) ((millis + gmtoffSeconds * 1000) / DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * @return the Julian day the time falls in, in the given time zone
+     */
+    public static int fromMillis(long millis, TimeZone zone) {
+        return fromMillis(millis, zone.getOffset(millis) / 1000);
+    }
+
+    /**
+     * @return today's Julian day in the given time zone
+     */
+    public static int today(TimeZone zone) {
+        return fromMillis(System.currentTimeMillis(), zone);
+    }
+
+    /**
+     * @return the first millisecond of the Julian day in the given time zone
+     */
+    public static long startOfDay(int julianDay, TimeZone zone) {
+        long millis = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        Calendar calendar = new GregorianCalendar(zone);
+        calendar.setTimeInMillis(millis);
+        // Midnight UTC can fall on the day before or after in the zone
+        calendar.add(Calendar.DAY_OF_MONTH, julianDay - fromMillis(millis, zone));
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * @return the first millisecond of the day the time falls in, in the given time zone
+     */
+    public static long normalize(long millis, TimeZone zone) {
+        return startOfDay(fromMillis(millis, zone), zone);
+    }
+}
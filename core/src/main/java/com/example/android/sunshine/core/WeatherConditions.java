@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+/**
+ * Groups OpenWeatherMap condition ids into the buckets Sunshine has icons and art for.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+
+    public static final int UNKNOWN = -1;
+    public static final int STORM = 0;
+    public static final int LIGHT_RAIN = 1;
+    public static final int RAIN = 2;
+    public static final int SNOW = 3;
+    public static final int FOG = 4;
+    public static final int CLEAR = 5;
+    public static final int LIGHT_CLOUDS = 6;
+    public static final int CLOUDS = 7;
+
+    /** The number of buckets, for tables indexed by bucket. */
+    public static final int BUCKET_COUNT = 8;
+
+    // The names art packs use for each bucket's image
+    private static final String[] ART_NAMES = {
+            "storm", "light_rain", "rain", "snow", "fog", "clear", "light_clouds", "clouds"
+    };
+
+    // Condition ids are three digits; anything outside is unknown
+    private static final byte[] BUCKETS = new byte[1000];
+
+    static {
+        for (int weatherId = 0; weatherId < BUCKETS.length; weatherId++) {
+            BUCKETS[weatherId] = (byte) computeBucket(weatherId);
+        }
+    }
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return the bucket for the condition, or {@link #UNKNOWN} if there isn't one
+     */
+    public static int getBucket(int weatherId) {
+        if (weatherId < 0 || weatherId >= BUCKETS.length) {
+            return UNKNOWN;
+        }
+        return BUCKETS[weatherId];
+    }
+
+    /**
+     * @return the image name art packs use for the bucket, or null for {@link #UNKNOWN}
+     */
+    public static String getArtName(int bucket) {
+        return bucket == UNKNOWN ? null : ART_NAMES[bucket];
+    }
+
+    // The lookup the table is built from
+    static int computeBucket(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return STORM;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return LIGHT_RAIN;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return RAIN;
+        } else if (weatherId == 511) {
+            return SNOW;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return RAIN;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return SNOW;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return FOG;
+        } else if (weatherId == 781) {
+            return STORM;
+        } else if (weatherId == 800) {
+            return CLEAR;
+        } else if (weatherId == 801) {
+            return LIGHT_CLOUDS;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return CLOUDS;
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+/**
+ * Unit conversion and formatting for temperatures and wind.  Forecasts are stored in Celsius
+ * and km/h; the format strings come from the caller's resources.
+ */
+public final class WeatherFormat {
+
+    private static final float KMH_TO_MPH = .621371192237334f;
+
+    private WeatherFormat() {
+    }
+
+    /**
+     * @return the temperature in the units the user picked
+     */
+    public static double toDisplayTemperature(double celsius, boolean metric) {
+        return metric ? celsius : (celsius * 1.8) + 32;
+    }
+
+    /**
+     * @param format a format taking the temperature as its only argument, e.g. "%1.0f\u00B0"
+     */
+    public static String formatTemperature(String format, double celsius, boolean metric) {
+        // For presentation, assume the user doesn't care about tenths of a degree.
+        return String.format(format, toDisplayTemperature(celsius, metric));
+    }
+
+    /**
+     * @return the wind speed in the units the user picked, km/h or mph
+     */
+    public static float toDisplayWindSpeed(float kmh, boolean metric) {
+        return metric ? kmh : KMH_TO_MPH * kmh;
+    }
+
+    /**
+     * @return the compass direction (e.g NW) the wind blows from
+     */
+    public static String getCompassDirection(float degrees) {
+        if (degrees >= 337.5 || degrees < 22.5) {
+            return "N";
+        } else if (degrees >= 22.5 && degrees < 67.5) {
+            return "NE";
+        } else if (degrees >= 67.5 && degrees < 112.5) {
+            return "E";
+        } else if (degrees >= 112.5 && degrees < 157.5) {
+            return "SE";
+        } else if (degrees >= 157.5 && degrees < 202.5) {
+            return "S";
+        } else if (degrees >= 202.5 && degrees < 247.5) {
+            return "SW";
+        } else if (degrees >= 247.5 && degrees < 292.5) {
+            return "W";
+        } else if (degrees >= 292.5 && degrees < 337.5) {
+            return "NW";
+        }
+        return "Unknown";
+    }
+
+    /**
+     * @param format a format taking the speed and then the direction, e.g. "%1$1.0f km/h %2$s"
+     */
+    public static String formatWind(String format, float kmh, float degrees, boolean metric) {
+        return String.format(format, toDisplayWindSpeed(kmh, metric), getCompassDirection(degrees));
+    }
+}
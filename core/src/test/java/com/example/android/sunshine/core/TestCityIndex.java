@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestCityIndex extends TestCase {
+
+    private static final List<String> CITIES = Arrays.asList(
+            "Mountain View,US",
+            "Munich,DE",
+            "Montreal,CA",
+            "M\u00fcnchen,DE",
+            "Mumbai,IN",
+            "London,GB",
+            "London,CA",
+            "Montr\u00e9al,CA",
+            "Mountain View,US",
+            "  ");
+
+    public void testSearch() {
+        CityIndex index = CityIndex.build(CITIES);
+        assertEquals("Error: Blank and duplicate names should be dropped", 8, index.size());
+        assertEquals(Arrays.asList("London,CA", "London,GB"), index.search("lon", 10));
+        assertEquals(Arrays.asList("Mountain View,US"), index.search("MOUNTAIN", 10));
+        assertEquals(Arrays.asList("Mumbai,IN", "M\u00fcnchen,DE", "Munich,DE"),
+                index.search("mu", 10));
+        assertTrue(index.search("x", 10).isEmpty());
+        assertTrue(index.search("", 10).isEmpty());
+        assertTrue("Error: A prefix longer than every name shouldn't match",
+                index.search("London,GB and more", 10).isEmpty());
+    }
+
+    public void testSearchIgnoresAccents() {
+        CityIndex index = CityIndex.build(CITIES);
+        assertEquals(Arrays.asList("M\u00fcnchen,DE"), index.search("munc", 10));
+        assertEquals(Arrays.asList("M\u00fcnchen,DE"), index.search("M\u00fcnc", 10));
+        assertEquals(Arrays.asList("Montreal,CA", "Montr\u00e9al,CA"),
+                index.search("montre", 10));
+    }
+
+    public void testLimit() {
+        CityIndex index = CityIndex.build(CITIES);
+        assertEquals(Arrays.asList("Montreal,CA", "Montr\u00e9al,CA", "Mountain View,US"),
+                index.search("mo", 3));
+        assertEquals(1, index.search("m", 1).size());
+        assertTrue(index.search("m", 0).isEmpty());
+    }
+
+    public void testOrder() {
+        List<String> names = new ArrayList<>();
+        for (int i = 999; i >= 0; i--) {
+            names.add("City " + i);
+        }
+        CityIndex index = CityIndex.build(names);
+        assertEquals(1000, index.size());
+        for (int i = 1; i < index.size(); i++) {
+            assertTrue(CityIndex.fold(index.get(i - 1))
+                    .compareTo(CityIndex.fold(index.get(i))) < 0);
+        }
+        assertEquals(11, index.search("city 99", 20).size());
+    }
+
+    public void testLoadAtOffset() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[7], 0, 7);
+        int written = CityIndex.write(CITIES, out);
+        assertEquals(out.size() - 7, written);
+        ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+        buffer.position(7);
+        assertEquals(Arrays.asList("London,CA", "London,GB"),
+                CityIndex.load(buffer).search("London", 10));
+    }
+
+    public void testNotAnIndex() {
+        try {
+            CityIndex.load(ByteBuffer.wrap(new byte[32]));
+            fail("Error: A buffer without the header should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testTruncated() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CityIndex.write(CITIES, out);
+        byte[] bytes = Arrays.copyOf(out.toByteArray(), out.size() - 1);
+        try {
+            CityIndex.load(ByteBuffer.wrap(bytes));
+            fail("Error: A truncated index should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+
+public class TestForecastJsonParser extends TestCase {
+
+    private static final String FORECAST = "{\"city\":{\"name\":\"Mountain View\"," +
+            "\"coord\":{\"lon\":-122.08,\"lat\":37.39}},\"cod\":\"200\",\"cnt\":2,\"list\":[" +
+            "{\"temp\":{\"min\":11.02,\"max\":21.85},\"pressure\":1006.77,\"humidity\":69," +
+            "\"weather\":[{\"id\":800,\"main\":\"Clear\"}],\"speed\":1.41,\"deg\":306}," +
+            "{\"temp\":{\"min\":10.5,\"max\":22.03},\"pressure\":1008.21,\"humidity\":71," +
+            "\"weather\":[{\"id\":801,\"main\":\"Clouds\"}],\"speed\":1.66,\"deg\":299}]}";
+
+    public void testParse() throws JSONException {
+        ForecastJsonParser.Forecast forecast = ForecastJsonParser.parse(FORECAST);
+        assertEquals(ForecastJsonParser.CODE_OK, forecast.code);
+        assertEquals("Mountain View", forecast.cityName);
+        assertEquals(37.39, forecast.cityLatitude);
+        assertEquals(-122.08, forecast.cityLongitude);
+        assertEquals(2, forecast.size());
+        assertEquals(801, forecast.weatherIds[1]);
+        assertEquals("Clouds", forecast.descriptions[1]);
+        assertEquals(10.5, forecast.minTemps[1]);
+        assertEquals(22.03, forecast.maxTemps[1]);
+        assertEquals(71, forecast.humidities[1]);
+        assertEquals(1008.21, forecast.pressures[1]);
+        assertEquals(1.66, forecast.windSpeeds[1]);
+        assertEquals(299.0, forecast.windDirections[1]);
+    }
+
+    public void testError() throws JSONException {
+        ForecastJsonParser.Forecast forecast =
+                ForecastJsonParser.parse("{\"cod\":\"404\",\"message\":\"city not found\"}");
+        assertEquals(404, forecast.code);
+        assertEquals(0, forecast.size());
+    }
+
+    public void testNotAForecast() {
+        try {
+            ForecastJsonParser.parse("<html>Bad Gateway</html>");
+            fail("Error: A body that isn't JSON should throw");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import junit.framework.TestCase;
+
+import java.util.TimeZone;
+
+public class TestWeatherConditions extends TestCase {
+
+    public void testTableMatchesLookup() {
+        for (int weatherId = -1; weatherId <= 1000; weatherId++) {
+            assertEquals("Error: Wrong bucket for condition " + weatherId,
+                    WeatherConditions.computeBucket(weatherId),
+                    WeatherConditions.getBucket(weatherId));
+        }
+    }
+
+    public void testBuckets() {
+        assertEquals(WeatherConditions.STORM, WeatherConditions.getBucket(211));
+        assertEquals(WeatherConditions.FOG, WeatherConditions.getBucket(761));
+        assertEquals(WeatherConditions.STORM, WeatherConditions.getBucket(781));
+        assertEquals(WeatherConditions.CLOUDS, WeatherConditions.getBucket(804));
+        assertEquals(WeatherConditions.UNKNOWN, WeatherConditions.getBucket(900));
+        assertEquals("light_clouds", WeatherConditions.getArtName(WeatherConditions.LIGHT_CLOUDS));
+        assertNull(WeatherConditions.getArtName(WeatherConditions.UNKNOWN));
+    }
+
+    public void testStartOfDay() {
+        TimeZone zone = TimeZone.getTimeZone("America/Los_Angeles");
+        // 2015-10-27 15:00 in Mountain View
+        long afternoon = 1445983200000L;
+        int julianDay = JulianDay.fromMillis(afternoon, zone);
+        assertEquals(2457323, julianDay);
+        assertEquals("Error: The day should start at local midnight",
+                1445929200000L, JulianDay.startOfDay(julianDay, zone));
+        assertEquals(1445929200000L, JulianDay.normalize(afternoon, zone));
+        assertEquals(julianDay + 1,
+                JulianDay.fromMillis(JulianDay.startOfDay(julianDay + 1, zone), zone));
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.guard;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Printer;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records what the main thread does that it shouldn't: disk reads, disk writes, network access
+ * and messages that run over a time budget.  Meant for debug builds only, turned on with
+ * {@link #install} from the application's onCreate.
+ *
+ * StrictMode does the detection and logs each violation as usual.  On top of that the guard
+ * wraps the main thread's BlockGuard policy (which is what StrictMode's disk and network checks
+ * call into) so it can keep its own tally, and watches the main looper's message log to time
+ * every message, sampling the main thread's stack when one runs past the budget.  Violations
+ * are grouped by call site with a count, total and worst duration of the message they ran in,
+ * and one stack.  {@link #dump} prints the report; the app and watch face hook it into dumpsys.
+ *
+ * BlockGuard is hidden API.  If it can't be reached the guard falls back to StrictMode's
+ * logcat output for I/O and still reports slow messages.
+ */
+public final class MainThreadGuard {
+    private static final String LOG_TAG = "MainThreadGuard";
+
+    public static final String KIND_DISK_READ = "disk read";
+    public static final String KIND_DISK_WRITE = "disk write";
+    public static final String KIND_NETWORK = "network";
+    public static final String KIND_SLOW = "slow message";
+
+    // Frames kept per stack, and distinct call sites kept in the report
+    private static final int MAX_FRAMES = 24;
+    private static final int SIGNATURE_FRAMES = 6;
+    private static final int MAX_ENTRIES = 256;
+
+    private static final class Entry {
+        final String kind;
+        final String signature;
+        final StackTraceElement[] stack;
+        final String message;
+        int count;
+        long totalMillis;
+        long maxMillis;
+
+        Entry(String kind, String signature, StackTraceElement[] stack, String message) {
+            this.kind = kind;
+            this.signature = signature;
+            this.stack = stack;
+            this.message = message;
+        }
+    }
+
+    private static MainThreadGuard sInstance;
+
+    private final long mBudgetMillis;
+    private final long mInstalledAt = SystemClock.uptimeMillis();
+    private final Thread mMainThread = Looper.getMainLooper().getThread();
+    private final Handler mWatchdog;
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+    private int mDropped;
+    private int mMessages;
+
+    // Main thread only: the message being dispatched and the call sites it has done I/O at,
+    // each charged the message's duration once however many calls it made there
+    private long mMessageStart;
+    private String mMessage;
+    private final Set<Entry> mMessageIo =
+            Collections.newSetFromMap(new IdentityHashMap<Entry, Boolean>());
+    // Written by the watchdog, read by the main thread once the message is done
+    private volatile StackTraceElement[] mSlowStack;
+
+    // The BlockGuard hook; see installBlockGuardHook()
+    private Class<?> mPolicyClass;
+    private Method mGetThreadPolicy;
+    private Method mSetThreadPolicy;
+    private Object mHookedPolicy;
+    private boolean mHookFailed;
+
+    private MainThreadGuard(long budgetMillis) {
+        mBudgetMillis = budgetMillis;
+        HandlerThread thread = new HandlerThread(LOG_TAG);
+        thread.start();
+        mWatchdog = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Starts recording.  Call once, on the main thread, from Application.onCreate.
+     *
+     * @param budgetMillis how long a single main thread message may take before it's reported
+     */
+    public static void install(long budgetMillis) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new IllegalStateException("MainThreadGuard must be installed on the main thread");
+        }
+        if (sInstance != null) {
+            return;
+        }
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork()
+                .detectCustomSlowCalls()
+                .penaltyLog()
+                .build());
+        sInstance = new MainThreadGuard(budgetMillis);
+        sInstance.installBlockGuardHook();
+        Looper.getMainLooper().setMessageLogging(sInstance.mPrinter);
+        Log.i(LOG_TAG, "Recording main thread I/O and messages over " + budgetMillis + "ms");
+    }
+
+    public static boolean isInstalled() {
+        return sInstance != null;
+    }
+
+    /**
+     * Prints the report: one block per call site, worst first.  Does nothing if the guard isn't
+     * installed, so release builds can call it unconditionally.
+     */
+    public static void dump(PrintWriter writer) {
+        MainThreadGuard guard = sInstance;
+        if (guard != null) {
+            guard.dumpReport(writer);
+        }
+    }
+
+    /**
+     * Forgets everything recorded so far, e.g. before exercising one screen.
+     */
+    public static void reset() {
+        MainThreadGuard guard = sInstance;
+        if (guard != null) {
+            synchronized (guard.mEntries) {
+                guard.mEntries.clear();
+                guard.mDropped = 0;
+                guard.mMessages = 0;
+            }
+        }
+    }
+
+    private final Printer mPrinter = new Printer() {
+        @Override
+        public void println(String x) {
+            // The looper logs ">>>>> Dispatching to ..." before and "<<<<< Finished to ..."
+            // after each message
+            if (x.startsWith(">")) {
+                onMessageStart(x);
+            } else if (x.startsWith("<")) {
+                onMessageEnd();
+            }
+        }
+    };
+
+    private final Runnable mSampleStack = new Runnable() {
+        @Override
+        public void run() {
+            mSlowStack = trim(mMainThread.getStackTrace(), 0);
+        }
+    };
+
+    private void onMessageStart(String message) {
+        // StrictMode swaps in a fresh policy whenever something allows I/O for a moment
+        installBlockGuardHook();
+        mSlowStack = null;
+        mMessage = message;
+        mMessageStart = SystemClock.uptimeMillis();
+        mWatchdog.postDelayed(mSampleStack, mBudgetMillis);
+    }
+
+    private void onMessageEnd() {
+        mWatchdog.removeCallbacks(mSampleStack);
+        if (mMessage == null) {
+            // Installed while a message was running
+            return;
+        }
+        long duration = SystemClock.uptimeMillis() - mMessageStart;
+        synchronized (mEntries) {
+            mMessages++;
+            for (Entry entry : mMessageIo) {
+                entry.totalMillis += duration;
+                entry.maxMillis = Math.max(entry.maxMillis, duration);
+            }
+        }
+        mMessageIo.clear();
+        if (duration > mBudgetMillis) {
+            StackTraceElement[] stack = mSlowStack;
+            String message = describe(mMessage);
+            String signature = stack != null ? signature(stack) : message;
+            Entry entry = record(KIND_SLOW, signature, stack, message);
+            if (entry != null) {
+                synchronized (mEntries) {
+                    entry.totalMillis += duration;
+                    entry.maxMillis = Math.max(entry.maxMillis, duration);
+                }
+            }
+        }
+        mMessage = null;
+    }
+
+    private void onIo(String kind) {
+        if (Thread.currentThread() != mMainThread) {
+            return;
+        }
+        // Skip the frames of the hook itself
+        StackTraceElement[] stack = trim(new Throwable().getStackTrace(), 1);
+        Entry entry = record(kind, signature(stack), stack,
+                mMessage != null ? describe(mMessage) : null);
+        if (entry != null && mMessage != null) {
+            // Charged the message's duration once it finishes
+            mMessageIo.add(entry);
+        }
+    }
+
+    private Entry record(String kind, String signature, StackTraceElement[] stack,
+                         String message) {
+        String key = kind + '\n' + signature;
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(key);
+            if (entry == null) {
+                if (mEntries.size() >= MAX_ENTRIES) {
+                    mDropped++;
+                    return null;
+                }
+                entry = new Entry(kind, signature, stack, message);
+                mEntries.put(key, entry);
+                Log.w(LOG_TAG, "New main thread " + kind + " at " + signature.replace('\n', ' '));
+            }
+            entry.count++;
+            return entry;
+        }
+    }
+
+    /**
+     * Drops the frames belonging to the guard, the proxy and BlockGuard, then keeps the top
+     * of what's left.
+     */
+    private static StackTraceElement[] trim(StackTraceElement[] stack, int skip) {
+        int start = skip;
+        while (start < stack.length && isGuardFrame(stack[start])) {
+            start++;
+        }
+        int end = Math.min(stack.length, start + MAX_FRAMES);
+        return Arrays.copyOfRange(stack, Math.min(start, end), end);
+    }
+
+    private static boolean isGuardFrame(StackTraceElement frame) {
+        String className = frame.getClassName();
+        return className.startsWith(MainThreadGuard.class.getName())
+                || className.startsWith("java.lang.reflect.Proxy")
+                || className.startsWith("$Proxy")
+                || className.startsWith("dalvik.system.BlockGuard")
+                || className.startsWith("libcore.io.BlockGuardOs")
+                || className.startsWith("dalvik.system.VMStack")
+                || className.equals("java.lang.Thread");
+    }
+
+    private static String signature(StackTraceElement[] stack) {
+        StringBuilder signature = new StringBuilder();
+        for (int i = 0; i < Math.min(SIGNATURE_FRAMES, stack.length); i++) {
+            if (i > 0) {
+                signature.append('\n');
+            }
+            signature.append(stack[i].getClassName()).append('.')
+                    .append(stack[i].getMethodName());
+        }
+        return signature.toString();
+    }
+
+    // Strips the identity hashes so the same kind of message groups together
+    private static String describe(String message) {
+        return message.replaceAll("@[0-9a-f]+", "").replaceAll("\\{[0-9a-f]+\\}", "");
+    }
+
+    private void installBlockGuardHook() {
+        if (mHookFailed) {
+            return;
+        }
+        try {
+            if (mPolicyClass == null) {
+                Class<?> blockGuard = Class.forName("dalvik.system.BlockGuard");
+                mPolicyClass = Class.forName("dalvik.system.BlockGuard$Policy");
+                mGetThreadPolicy = blockGuard.getMethod("getThreadPolicy");
+                mSetThreadPolicy = blockGuard.getMethod("setThreadPolicy", mPolicyClass);
+            }
+            final Object delegate = mGetThreadPolicy.invoke(null);
+            if (delegate == mHookedPolicy) {
+                return;
+            }
+            mHookedPolicy = Proxy.newProxyInstance(mPolicyClass.getClassLoader(),
+                    new Class<?>[]{mPolicyClass}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args)
+                                throws Throwable {
+                            String name = method.getName();
+                            if ("onReadFromDisk".equals(name)) {
+                                onIo(KIND_DISK_READ);
+                            } else if ("onWriteToDisk".equals(name)) {
+                                onIo(KIND_DISK_WRITE);
+                            } else if ("onNetwork".equals(name)) {
+                                onIo(KIND_NETWORK);
+                            }
+                            try {
+                                return method.invoke(delegate, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        }
+                    });
+            mSetThreadPolicy.invoke(null, mHookedPolicy);
+        } catch (Exception e) {
+            mHookFailed = true;
+            Log.w(LOG_TAG, "Can't hook BlockGuard; main thread I/O is only in StrictMode's log", e);
+        }
+    }
+
+    private void dumpReport(PrintWriter writer) {
+        List<Entry> entries;
+        int dropped;
+        int messages;
+        synchronized (mEntries) {
+            entries = new ArrayList<>(mEntries.size());
+            // Copy, so the dump doesn't race the main thread
+            for (Entry entry : mEntries.values()) {
+                Entry copy = new Entry(entry.kind, entry.signature, entry.stack, entry.message);
+                copy.count = entry.count;
+                copy.totalMillis = entry.totalMillis;
+                copy.maxMillis = entry.maxMillis;
+                entries.add(copy);
+            }
+            dropped = mDropped;
+            messages = mMessages;
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                if (lhs.totalMillis != rhs.totalMillis) {
+                    return lhs.totalMillis < rhs.totalMillis ? 1 : -1;
+                }
+                return rhs.count - lhs.count;
+            }
+        });
+
+        int io = 0;
+        int slow = 0;
+        for (Entry entry : entries) {
+            if (KIND_SLOW.equals(entry.kind)) {
+                slow += entry.count;
+            } else {
+                io += entry.count;
+            }
+        }
+        writer.println("MainThreadGuard: budget " + mBudgetMillis + "ms, " + messages +
+                " messages over " + (SystemClock.uptimeMillis() - mInstalledAt) / 1000 + "s, " +
+                io + " I/O calls, " + slow + " slow messages, " + entries.size() +
+                " call sites" + (dropped > 0 ? " (" + dropped + " more dropped)" : "") +
+                (mHookFailed ? ", I/O hook unavailable" : ""));
+        for (Entry entry : entries) {
+            writer.println();
+            writer.println("  " + entry.kind + ": count=" + entry.count + " totalMillis=" +
+                    entry.totalMillis + " maxMillis=" + entry.maxMillis);
+            if (entry.message != null) {
+                writer.println("    in " + entry.message);
+            }
+            if (entry.stack != null) {
+                for (StackTraceElement frame : entry.stack) {
+                    writer.println("    at " + frame);
+                }
+            }
+        }
+        writer.flush();
+    }
+}
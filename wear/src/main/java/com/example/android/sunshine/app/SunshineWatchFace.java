@@ -39,7 +39,11 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshine.guard.MainThreadGuard;
+
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.util.Calendar;
 import java.util.TimeZone;
@@ -80,6 +84,13 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
     private static final int MSG_UPDATE_TIME = 0;
 
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(fd, writer, args);
+        // adb shell dumpsys activity service SunshineWatchFace
+        MainThreadGuard.dump(writer);
+    }
+
     @Override
     public Engine onCreateEngine() {
         Log.d(TAG, "onCreateEngine");
@@ -194,7 +194,7 @@ public class WeatherListenerService extends WearableListenerService implements G
         @Override
         protected Bitmap doInBackground(Asset... params) {
 
-            if(params.length > 0) {
+            if(params.length > 0 && params[0] != null) {
 
                 Asset asset = params[0];
 